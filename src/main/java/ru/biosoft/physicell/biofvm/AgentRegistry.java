@@ -0,0 +1,159 @@
+package ru.biosoft.physicell.biofvm;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+
+/**
+ * Dense array-backed set of agents, position of agent in the array is stored in BasicAgent.index.<br>
+ * Add, remove and contains are O(1). Removal moves the last agent into the freed position,
+ * so iteration order is deterministic (insertion order modified only by removals) and agents can be accessed by position for parallel loops.
+ */
+public class AgentRegistry<T extends BasicAgent> extends AbstractSet<T>
+{
+    private BasicAgent[] agents = new BasicAgent[16];
+    private int size;
+
+    /*! number of structural changes, used by iterators to detect concurrent modification */
+    private int modCount;
+
+    @Override
+    public int size()
+    {
+        return size;
+    }
+
+    @SuppressWarnings ( "unchecked")
+    public T get(int i)
+    {
+        if( i >= size )
+            throw new IndexOutOfBoundsException( "Index: " + i + ", size: " + size );
+        return (T)agents[i];
+    }
+
+    @Override
+    public boolean contains(Object o)
+    {
+        if( ! ( o instanceof BasicAgent ) )
+            return false;
+        int i = ( (BasicAgent)o ).index;
+        return i >= 0 && i < size && agents[i] == o;
+    }
+
+    @Override
+    public boolean add(T agent)
+    {
+        if( contains( agent ) )
+            return false;
+        if( size == agents.length )
+            agents = Arrays.copyOf( agents, size * 2 );
+        agent.index = size;
+        agents[size++] = agent;
+        modCount++;
+        return true;
+    }
+
+    @Override
+    public boolean remove(Object o)
+    {
+        if( !contains( o ) )
+            return false;
+        removeAt( ( (BasicAgent)o ).index );
+        return true;
+    }
+
+    /**
+     * Removes agent at position i, the last agent takes its place
+     */
+    private void removeAt(int i)
+    {
+        BasicAgent removed = agents[i];
+        int last = --size;
+        if( i != last )
+        {
+            agents[i] = agents[last];
+            agents[i].index = i;
+        }
+        agents[last] = null;
+        removed.index = -1;
+        modCount++;
+    }
+
+    @Override
+    public void clear()
+    {
+        for( int i = 0; i < size; i++ )
+        {
+            agents[i].index = -1;
+            agents[i] = null;
+        }
+        size = 0;
+        modCount++;
+    }
+
+    /**
+     * Calls action for each agent, agents are processed in parallel if pool is not null.
+     * Agents should not be added or removed during the call.
+     */
+    @SuppressWarnings ( "unchecked")
+    public void forEach(ForkJoinPool pool, Consumer<? super T> action)
+    {
+        BasicAgent[] array = agents;
+        ParallelUtil.forEach( pool, size, i -> action.accept( (T)array[i] ) );
+    }
+
+    /**
+     * Iterator by positions. Agents may be removed during iteration only by Iterator.remove(), the last agent moved to the place
+     * of removed one is visited next. Other structural changes (adding or removing agents directly) during iteration are not allowed,
+     * they should be deferred until the end of the loop (as cells ready to divide or die are processed by container).
+     * @throws ConcurrentModificationException if registry was changed not by iterator
+     */
+    @Override
+    public Iterator<T> iterator()
+    {
+        return new Iterator<T>()
+        {
+            private int next = 0;
+            private BasicAgent current;
+            private int expectedModCount = modCount;
+
+            private void checkModification()
+            {
+                if( modCount != expectedModCount )
+                    throw new ConcurrentModificationException( "Agents were added or removed during iteration" );
+            }
+
+            @Override
+            public boolean hasNext()
+            {
+                checkModification();
+                return next < size;
+            }
+
+            @Override
+            @SuppressWarnings ( "unchecked")
+            public T next()
+            {
+                if( !hasNext() )
+                    throw new NoSuchElementException();
+                current = agents[next++];
+                return (T)current;
+            }
+
+            @Override
+            public void remove()
+            {
+                checkModification();
+                if( current == null )
+                    throw new IllegalStateException();
+                removeAt( --next );
+                current = null;
+                expectedModCount = modCount;
+            }
+        };
+    }
+}
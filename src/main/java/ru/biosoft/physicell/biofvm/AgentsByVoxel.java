@@ -0,0 +1,79 @@
+package ru.biosoft.physicell.biofvm;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Agents grouped by current voxel with counting sort, order of agents inside each voxel is the order of original collection.<br>
+ * Agents of voxel n are agents[start[n]] ... agents[start[n + 1] - 1], occupied voxels are listed in occupied[0 .. occupiedCount - 1].
+ * Arrays are reused between calls to group, so grouping does not allocate memory after warm up.
+ */
+public class AgentsByVoxel
+{
+    BasicAgent[] agents = new BasicAgent[0];
+    int[] start = new int[1];
+    int[] occupied = new int[0];
+    int occupiedCount;
+    private int[] next = new int[0];
+
+    public void group(Collection<? extends BasicAgent> source, int voxels)
+    {
+        if( start.length != voxels + 1 )
+        {
+            start = new int[voxels + 1];
+            next = new int[voxels];
+            occupied = new int[voxels];
+        }
+        else
+            Arrays.fill( start, 0 );
+        if( agents.length < source.size() )
+            agents = new BasicAgent[source.size()];
+
+        // count agents in each voxel, agents outside of the mesh are not grouped
+        for( BasicAgent agent : source )
+        {
+            if( agent.currentVoxelIndex >= 0 )
+                start[agent.currentVoxelIndex + 1]++;
+        }
+        occupiedCount = 0;
+        for( int n = 0; n < voxels; n++ )
+        {
+            if( start[n + 1] > 0 )
+                occupied[occupiedCount++] = n;
+            start[n + 1] += start[n];
+            next[n] = start[n];
+        }
+        for( BasicAgent agent : source )
+        {
+            if( agent.currentVoxelIndex >= 0 )
+                agents[next[agent.currentVoxelIndex]++] = agent;
+        }
+        // clear tail so removed agents are not retained
+        Arrays.fill( agents, start[voxels], agents.length, null );
+    }
+
+    public int getOccupiedCount()
+    {
+        return occupiedCount;
+    }
+
+    public int getOccupiedVoxel(int i)
+    {
+        return occupied[i];
+    }
+
+    public int getStart(int voxel)
+    {
+        return start[voxel];
+    }
+
+    public int getEnd(int voxel)
+    {
+        return start[voxel + 1];
+    }
+
+    public BasicAgent getAgent(int i)
+    {
+        return agents[i];
+    }
+}
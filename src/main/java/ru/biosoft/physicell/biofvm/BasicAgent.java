@@ -53,8 +53,6 @@ public class BasicAgent
 {
     //    public static List<BasicAgent> allBasicAgents = new ArrayList<>();
 
-    static int maxBasicAgentId = 0;
-
     protected Microenvironment microenvironment;
     int selected_microenvironment;
 
@@ -93,8 +91,7 @@ public class BasicAgent
     public BasicAgent(Microenvironment m)
     {
         //give the agent a unique ID  
-        ID = maxBasicAgentId;
-        maxBasicAgentId++;
+        ID = m.nextAgentId();
         // initialize position and velocity
         isActive = true;
 
@@ -171,15 +168,17 @@ public class BasicAgent
             isActive = false;
             return;
         }
-        currentVoxelIndex = microenvironment.nearest_voxel_index( position );
+        int voxelIndex = microenvironment.nearest_voxel_index( position );
+        if( voxelIndex != currentVoxelIndex && isSource() )
+            microenvironment.markSourcesChanged();
+        currentVoxelIndex = voxelIndex;
     }
 
     public void registerMicroenvironment(Microenvironment microenvironment)
     {
         this.microenvironment = microenvironment;
         microenvironment.addAgent( this );
-        double[] density = microenvironment.getDensity( 0 );
-        int length = density.length;
+        int length = microenvironment.number_of_densities();
 
         secretionRates = VectorUtil.resize( secretionRates, length );
         saturationDensities = VectorUtil.resize( saturationDensities, length );
@@ -209,7 +208,6 @@ public class BasicAgent
     {
         BasicAgent pNew = new BasicAgent( m );
         //        allBasicAgents.add( pNew );
-        pNew.index = m.getAgentsCount();
         return pNew;
     }
 
@@ -230,31 +228,78 @@ public class BasicAgent
         double v = microenvironment.voxels( currentVoxelIndex ).volume; //voxel volume
         double discretizeConstant = dt * volume / v; // needs a fix  (?)
 
-        // temp1 = dt*(V_cell/V_voxel)*S*T, where: S - secretion rate, T- saturation density
-        sourceSinkTemp1 = VectorUtil.newProd( secretionRates, saturationDensities );
-        VectorUtil.prod( sourceSinkTemp1, discretizeConstant );
-
-        // temp2 = 1 + sdt*(V_cell/V_voxel)*( S + U )
-        sourceSinkTemp2 = VectorUtil.assign( secretionRates.length, 1 );
-        VectorUtil.axpy( sourceSinkTemp2, discretizeConstant, secretionRates );
-        VectorUtil.axpy( sourceSinkTemp2, discretizeConstant, uptakeRates );
-
-        // temp for net export 
-        sourceSinkExport1 = VectorUtil.newProd( netExportRates, dt );
-        sourceSinkExport2 = VectorUtil.newProd( sourceSinkExport1, 1.0 / v );
+        // arrays are updated in place, they are reallocated only if number of substrates was changed
+        int length = secretionRates.length;
+        // relative change of constants, used by quasi-steady-state mode
+        double change = 0;
+        if( sourceSinkTemp1.length != length )
+        {
+            sourceSinkTemp1 = new double[length];
+            sourceSinkTemp2 = new double[length];
+            sourceSinkExport1 = new double[length];
+            sourceSinkExport2 = new double[length];
+            change = Double.POSITIVE_INFINITY;
+        }
+        for( int q = 0; q < length; q++ )
+        {
+            // temp1 = dt*(V_cell/V_voxel)*S*T, where: S - secretion rate, T- saturation density
+            double temp1 = secretionRates[q] * saturationDensities[q] * discretizeConstant;
+
+            // temp2 = 1 + sdt*(V_cell/V_voxel)*( S + U )
+            double temp2 = 1 + discretizeConstant * secretionRates[q] + discretizeConstant * uptakeRates[q];
+
+            // temp for net export 
+            double export1 = netExportRates[q] * dt;
+
+            change = Math.max( change, relativeChange( sourceSinkTemp1[q], temp1 ) );
+            change = Math.max( change, relativeChange( sourceSinkTemp2[q] - 1, temp2 - 1 ) );
+            change = Math.max( change, relativeChange( sourceSinkExport1[q], export1 ) );
+            sourceSinkTemp1[q] = temp1;
+            sourceSinkTemp2[q] = temp2;
+            sourceSinkExport1[q] = export1;
+            sourceSinkExport2[q] = export1 * ( 1.0 / v );
+        }
         volumeChanged = false;
+        microenvironment.markSourcesChanged( change );
     }
 
-    public void simulateSecretionUptake(Microenvironment m, double dt)
+    private static double relativeChange(double oldValue, double newValue)
     {
-        if( !isActive )
-            return;
+        double scale = Math.max( Math.abs( oldValue ), Math.abs( newValue ) );
+        return scale == 0 ? 0 : Math.abs( newValue - oldValue ) / scale;
+    }
+
+    /**
+     * @return true if agent secretes, takes up or exports any substrate
+     */
+    public boolean isSource()
+    {
+        for( int q = 0; q < secretionRates.length; q++ )
+        {
+            if( secretionRates[q] != 0 || uptakeRates[q] != 0 || netExportRates[q] != 0 )
+                return true;
+        }
+        return false;
+    }
 
+    /**
+     * Recomputes source/sink constants if agent volume was changed
+     */
+    void updateUptakeConstants(double dt)
+    {
         if( volumeChanged )
         {
             setUptakeConstants( dt );
             volumeChanged = false;
         }
+    }
+
+    public void simulateSecretionUptake(Microenvironment m, double dt)
+    {
+        if( !isActive )
+            return;
+
+        updateUptakeConstants( dt );
 
         //Ilya: Rewritten below
         //        if( m.options.track_internalized_substrates_in_each_agent )
@@ -269,20 +314,23 @@ public class BasicAgent
         //        }
 
         //   p(n+1) = (  p(n) + temp1 )/temp2
-        double[] density = m.get( currentVoxelIndex );
-        double[] densityChange = density.clone();
-        VectorUtil.sum( density, sourceSinkTemp1 );
-        VectorUtil.div( density, sourceSinkTemp2 );
-
-        // now do net export 
-        VectorUtil.sum( density, sourceSinkExport2 );
-
-        if( m.options.track_internalized_substrates_in_each_agent )
+        // densities are updated in place in the flat storage, without copying voxel density vector
+        DensityStorage storage = m.density;
+        double[] p = storage.data;
+        boolean track = m.options.track_internalized_substrates_in_each_agent;
+        double voxelVolume = m.voxels( currentVoxelIndex ).volume;
+        int index = storage.index( currentVoxelIndex, 0 );
+        for( int q = 0; q < sourceSinkTemp1.length; q++, index += storage.substrateStride )
         {
-            VectorUtil.diff( densityChange, density ); //calculate change in density
-            VectorUtil.prod( densityChange, m.voxels( currentVoxelIndex ).volume ); //recalcualte to volume
-            VectorUtil.diff( internalizedSubstrates, densityChange ); //apply source sink change
-            VectorUtil.diff( internalizedSubstrates, sourceSinkExport1 ); //apply export change
+            double oldDensity = p[index];
+            double density = ( oldDensity + sourceSinkTemp1[q] ) / sourceSinkTemp2[q];
+            p[index] = density + sourceSinkExport2[q]; // now do net export 
+
+            if( track )
+            {
+                internalizedSubstrates[q] -= ( density - oldDensity ) * voxelVolume; //opposite of net extracellular change
+                internalizedSubstrates[q] -= sourceSinkExport1[q]; //apply export change
+            }
         }
         return;
     }
@@ -311,7 +359,8 @@ public class BasicAgent
 
         //        pS.get( currentVoxelIndex ) += internalized_substrates;
         //        (*pS)(current_voxel_index) += *internalized_substrates; 
-        VectorUtil.sum( microenvironment.get( currentVoxelIndex ), internalizedSubstrates );
+        for( int q = 0; q < internalizedSubstrates.length; q++ )
+            microenvironment.density.add( currentVoxelIndex, q, internalizedSubstrates[q] );
         // zero out the now-removed substrates 
         internalizedSubstrates = new double[internalizedSubstrates.length];
         //        internalized_substrates->assign( internalized_substrates->size() , 0.0 ); 
@@ -331,7 +380,7 @@ public class BasicAgent
 
     public double[] nearest_gradient(int substrate_index)
     {
-        return null;///microenvironment.gradient_vector( currentVoxelIndex )[substrate_index];
+        return microenvironment.gradient_vector( currentVoxelIndex )[substrate_index];
     }
 
 }
\ No newline at end of file
@@ -55,6 +55,23 @@ public class CartesianMesh extends GeneralMesh
     public double[] y_coordinates;
     public double[] z_coordinates;
     public int[][] moore_connected_voxel_indices = new int[0][]; // Keeps the list of voxels in the Moore nighborhood
+    /**
+     * Offsets of Moore neighbors (parallel to moore_connected_voxel_indices) coded as (ii + 1) + 3 * (jj + 1) + 9 * (kk + 1)
+     */
+    public int[][] moore_connected_voxel_offsets = new int[0][];
+    /**
+     * Type of neighbor for each offset code: number of differing cartesian indices, 1 - face, 2 - edge, 3 - corner neighbor
+     */
+    public static final int[] OFFSET_TYPE = new int[27];
+    static
+    {
+        for( int code = 0; code < 27; code++ )
+            OFFSET_TYPE[code] = ( code % 3 != 1 ? 1 : 0 ) + ( code / 3 % 3 != 1 ? 1 : 0 ) + ( code / 9 != 1 ? 1 : 0 );
+    }
+    /**
+     * Coordinates of boundaries between consecutive voxels along each dimension
+     */
+    double[][] face_coordinates = new double[3][0];
     public double dx;
     public double dy;
     public double dz;
@@ -229,8 +246,10 @@ public class CartesianMesh extends GeneralMesh
     void create_moore_neighborhood()
     {
         //                        moore_connected_voxel_indices.resize( voxels.length );
-        moore_connected_voxel_indices = VectorUtil.resize( moore_connected_voxel_indices, voxels.length );
-
+        moore_connected_voxel_indices = new int[voxels.length][];
+        moore_connected_voxel_offsets = new int[voxels.length][];
+        int[] neighbors = new int[26];
+        int[] offsets = new int[26];
         for( int j = 0; j < y_coordinates.length; j++ )
         {
             for( int i = 0; i < x_coordinates.length; i++ )
@@ -238,21 +257,55 @@ public class CartesianMesh extends GeneralMesh
                 for( int k = 0; k < z_coordinates.length; k++ )
                 {
                     int center_inex = voxel_index( i, j, k );
+                    int count = 0;
                     for( int ii = -1; ii <= 1; ii++ )
                         for( int jj = -1; jj <= 1; jj++ )
                             for( int kk = -1; kk <= 1; kk++ )
                                 if( i + ii >= 0 && i + ii < x_coordinates.length && j + jj >= 0 && j + jj < y_coordinates.length
                                         && k + kk >= 0 && k + kk < z_coordinates.length && ! ( ii == 0 && jj == 0 && kk == 0 ) )
                                 {
-                                    int neighbor_index = voxel_index( i + ii, j + jj, k + kk );
-                                    moore_connected_voxel_indices[center_inex] = VectorUtil
-                                            .push_back( moore_connected_voxel_indices[center_inex], neighbor_index );
+                                    neighbors[count] = voxel_index( i + ii, j + jj, k + kk );
+                                    offsets[count++] = ( ii + 1 ) + 3 * ( jj + 1 ) + 9 * ( kk + 1 );
                                 }
+                    moore_connected_voxel_indices[center_inex] = Arrays.copyOf( neighbors, count );
+                    moore_connected_voxel_offsets[center_inex] = Arrays.copyOf( offsets, count );
                 }
             }
         }
+
+        // boundaries between consecutive voxels along each dimension
+        double[][] coordinates = {x_coordinates, y_coordinates, z_coordinates};
+        face_coordinates = new double[3][];
+        for( int d = 0; d < 3; d++ )
+        {
+            face_coordinates[d] = new double[Math.max( coordinates[d].length - 1, 0 )];
+            for( int i = 0; i < face_coordinates[d].length; i++ )
+                face_coordinates[d][i] = 0.5 * ( coordinates[d][i] + coordinates[d][i + 1] );
+        }
     }
 
+    /**
+     * Squared distance from position to the boundary shared by voxel and its n-th Moore neighbor
+     * (face plane, edge line or corner point depending on neighbor offset, see OFFSET_TYPE).<br>
+     * Uses precomputed stencil tables and does not allocate memory.
+     */
+    public double neighbor_boundary_distance_squared(double[] position, int voxel_index, int n)
+    {
+        int offset = moore_connected_voxel_offsets[voxel_index][n];
+        int nx = x_coordinates.length;
+        int ny = y_coordinates.length;
+        double result = 0;
+        for( int d = 0; d < 3; d++, offset /= 3 )
+        {
+            int o = offset % 3 - 1;
+            if( o == 0 )
+                continue;
+            int c = d == 0 ? voxel_index % nx : d == 1 ? ( voxel_index / nx ) % ny : voxel_index / ( nx * ny );
+            double diff = position[d] - face_coordinates[d][o > 0 ? c : c - 1];
+            result += diff * diff;
+        }
+        return result;
+    }
 
     void create_voxel_faces()
     {
@@ -0,0 +1,93 @@
+package ru.biosoft.physicell.biofvm;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Implicit LOD solver with Thomas algorithm for meshes with single z layer.<br>
+ * Performs x and y sweeps only, decay term is split between two sweeps (c2 = dt*lambda/2) as in BioFVM 2-D solver.
+ */
+public class ConstantCoefficientsLOD2D extends DiffusionDecaySolver
+{
+    int xLength;
+    int yLength;
+
+    /**
+     * Pool used to process independent lines of each sweep, null means that pool of microenvironment is used (serial solver if it is not set either).
+     */
+    private ForkJoinPool pool;
+
+    public ConstantCoefficientsLOD2D()
+    {
+        this( null );
+    }
+
+    public ConstantCoefficientsLOD2D(ForkJoinPool pool)
+    {
+        this.pool = pool;
+    }
+
+    public void setPool(ForkJoinPool pool)
+    {
+        this.pool = pool;
+    }
+
+    public ForkJoinPool getPool()
+    {
+        return pool;
+    }
+
+    public void setup(Microenvironment m, double dt)
+    {
+        System.out.println( "Using implicit 2-D LOD with Thomas Algorithm ... " );
+
+        xLength = m.mesh.x_coordinates.length;
+        yLength = m.mesh.y_coordinates.length;
+
+        m.thomas_i_jump = 1; //offset to get next x coordinate
+        m.thomas_j_jump = xLength; //offset to get next y coordinate
+        m.thomas_k_jump = m.thomas_j_jump * yLength;
+
+        ConstantCoefficientsLOD3D.computeThomasConstants( m, dt, 2 );
+
+        m.thomas_cx = new double[xLength][];
+        m.thomas_denomx = new double[xLength][];
+        ConstantCoefficientsLOD3D.computeThomasCoefficients( m, m.thomas_denomx, m.thomas_cx );
+
+        m.thomas_cy = new double[yLength][];
+        m.thomas_denomy = new double[yLength][];
+        ConstantCoefficientsLOD3D.computeThomasCoefficients( m, m.thomas_denomy, m.thomas_cy );
+        m.diffusion_solver_setup_done = true;
+    }
+
+    @Override
+    public void solve(Microenvironment m, double dt) throws Exception
+    {
+        if( m.mesh.regular_mesh == false || m.mesh.Cartesian_mesh == false )
+            throw new IllegalArgumentException( "Error: This algorithm is written for regular Cartesian meshes. Try: other solvers!" );
+
+        if( m.mesh.z_coordinates.length != 1 )
+            throw new IllegalArgumentException( "Error: This algorithm is written for 2-D meshes (single z layer). Try: ConstantCoefficientsLOD3D!" );
+
+        // define constants and pre-computed quantities
+        if( !m.diffusion_solver_setup_done )
+            setup( m, dt );
+
+        // substrates with larger diffusion time step are not advanced at each step
+        int[] substrates = m.substrates_to_diffuse();
+        ForkJoinPool pool = this.pool != null ? this.pool : m.getPool();
+        if( substrates.length == 0 )
+            return;
+
+        // x-diffusion, lines are enumerated by j
+        m.apply_dirichlet_conditions();
+        ParallelUtil.forEach( pool, yLength, j -> ConstantCoefficientsLOD3D.solveLine( m, substrates, m.voxel_index( 0, j, 0 ), m.thomas_i_jump,
+                xLength, m.thomas_denomx, m.thomas_cx ) );
+
+        // y-diffusion, lines are enumerated by i
+        m.apply_dirichlet_conditions();
+        ParallelUtil.forEach( pool, xLength, i -> ConstantCoefficientsLOD3D.solveLine( m, substrates, m.voxel_index( i, 0, 0 ), m.thomas_j_jump,
+                yLength, m.thomas_denomy, m.thomas_cy ) );
+
+        m.apply_dirichlet_conditions();
+    }
+}
@@ -1,5 +1,7 @@
 package ru.biosoft.physicell.biofvm;
 
+import java.util.concurrent.ForkJoinPool;
+
 /*
 #############################################################################
 # If you use BioFVM in your project, please cite BioFVM and the version     #
@@ -52,7 +54,32 @@ public class ConstantCoefficientsLOD3D extends DiffusionDecaySolver
     int xLength;
     int yLength;
     int zLength;
-    double[][] density;
+
+    /**
+     * Pool used to process independent lines of each sweep, null means that pool of microenvironment is used (serial solver if it is not set either).
+     * Each line is processed by exactly one thread in the same order, so result does not depend on the pool.
+     */
+    private ForkJoinPool pool;
+
+    public ConstantCoefficientsLOD3D()
+    {
+        this( null );
+    }
+
+    public ConstantCoefficientsLOD3D(ForkJoinPool pool)
+    {
+        this.pool = pool;
+    }
+
+    public void setPool(ForkJoinPool pool)
+    {
+        this.pool = pool;
+    }
+
+    public ForkJoinPool getPool()
+    {
+        return pool;
+    }
 
     public void setup(Microenvironment m, double dt)
     {
@@ -61,19 +88,36 @@ public class ConstantCoefficientsLOD3D extends DiffusionDecaySolver
         xLength = m.mesh.x_coordinates.length;
         yLength = m.mesh.y_coordinates.length;
         zLength = m.mesh.z_coordinates.length;
-        density = m.density;
-
-        m.thomas_denomx = new double[xLength][];
-        m.thomas_cx = new double[xLength][];
-        m.thomas_denomy = new double[yLength][];
-        m.thomas_cy = new double[yLength][];
-        m.thomas_denomz = new double[zLength][];
-        m.thomas_cz = new double[zLength][];
 
         m.thomas_i_jump = 1; //offset to get next x coordinate
         m.thomas_j_jump = xLength; //offset to get next y coordinate
         m.thomas_k_jump = m.thomas_j_jump * yLength; //offset to get next z coordinate
 
+        computeThomasConstants( m, dt, 3 );
+
+        // First part of forward sweep, calculate Thomas coeffecients c' and denom
+        m.thomas_cx = new double[xLength][];
+        m.thomas_denomx = new double[xLength][];
+        computeThomasCoefficients( m, m.thomas_denomx, m.thomas_cx );
+
+        //y and z coefficients the same as for x
+        m.thomas_cy = new double[yLength][];
+        m.thomas_denomy = new double[yLength][];
+        computeThomasCoefficients( m, m.thomas_denomy, m.thomas_cy );
+
+        m.thomas_cz = new double[zLength][];
+        m.thomas_denomz = new double[zLength][];
+        computeThomasCoefficients( m, m.thomas_denomz, m.thomas_cz );
+        m.diffusion_solver_setup_done = true;
+    }
+
+    /**
+     * Computes constants of tridiagonal matrix which are the same for all lines.
+     * Each substrate uses its own time step dt*m.diffusion_dt_multiples[q], so all coefficient arrays are computed per substrate.
+     * @param dimensions number of sweeps per step, decay term is evenly split between them
+     */
+    static void computeThomasConstants(Microenvironment m, double dt, int dimensions)
+    {
         /*We solve tridiagonal matrix equation with each matrix element as a vector:
           
            [ b_1  c_1   0   ...   0  ] [ x_1 ]   [ p_1 ]
@@ -83,76 +127,57 @@ public class ConstantCoefficientsLOD3D extends DiffusionDecaySolver
            [  0   ...       a_n  b_n ] [ x_n ]   [ p_n ]
         
            where a_i = c_i = dt*D/dx^2
-                 b_1 = b_n = 1 + 1/3*dt*lambda + dt*D/dx^2
-                 b_i = 1 + 1/3*dt*lambda + 2*dt*D/dx^2 ,  i=2,..,n-1
+                 b_1 = b_n = 1 + dt*lambda/d + dt*D/dx^2
+                 b_i = 1 + dt*lambda/d + 2*dt*D/dx^2 ,  i=2,..,n-1
+                 d - number of sweeps (dimensions), decay is split between them
                  p_i - density on previous step
                  x_i - density on current step
                  
            Using Thomas algorithm
         */
-        m.thomas_constant1 = VectorUtil.newProd( m.diffusion_coefficients, dt ); // c1 = dt*D/dx^2  This is -a_i = -c_i, i=0,..,n
+        double[] dtq = m.diffusion_time_steps( dt );
+        m.thomas_constant1 = VectorUtil.newProd( m.diffusion_coefficients, dtq ); // c1 = dt*D/dx^2  This is -a_i = -c_i, i=0,..,n
         VectorUtil.div( m.thomas_constant1, m.mesh.dx );
         VectorUtil.div( m.thomas_constant1, m.mesh.dx );
         m.thomas_constant1a = VectorUtil.newProd( m.thomas_constant1, -1.0 ); // c1a = -dt*D/dx^2;  This is a_i = c_i, i=0,..,n
-        m.thomas_constant2 = VectorUtil.newProd( m.decay_rates, dt / 3.0 ); // c2 = (1/3)* dt*lambda 
+        m.thomas_constant2 = new double[dtq.length]; // c2 = (1/d)* dt*lambda 
+        for( int q = 0; q < dtq.length; q++ )
+            m.thomas_constant2[q] = m.decay_rates[q] * ( dtq[q] / dimensions );
         m.thomas_constant3 = VectorUtil.newSum( m.one, m.thomas_constant1 ); // c3 = 1 + 2*c1 + c2; //this is b_i, i=0,..,n-1
         VectorUtil.sum( m.thomas_constant3, m.thomas_constant1 );
         VectorUtil.sum( m.thomas_constant3, m.thomas_constant2 );
         m.thomas_constant3a = VectorUtil.newSum( m.one, m.thomas_constant1 ); //c3a = 1 + c1 + c2;  //this is b_0 = b_n
         VectorUtil.sum( m.thomas_constant3a, m.thomas_constant2 );
+    }
 
-        // First part of forward sweep, calculate Thomas coeffecients c' and denom
-        //x coefficients        
-        //First step: cx (c') = c_i , denom = b_i 
-        m.thomas_cx = VectorUtil.assign( xLength, m.thomas_constant1a );
-        m.thomas_denomx = VectorUtil.assign( xLength, m.thomas_constant3 );
-        m.thomas_denomx[0] = m.thomas_constant3a.clone();
-        m.thomas_denomx[xLength - 1] = m.thomas_constant3a.clone();
-
-        if( xLength == 1 ) //degenerate case
-            m.thomas_denomx[0] = VectorUtil.newSum( m.one, m.thomas_constant2 );
-
-        //Second step:
-        // cx_i = c_i  / (b_i - a_i * cx_(i-1))
-        // denom_i = (b_i - a_i * cx_(i-1)) - stored for future use
-        VectorUtil.div( m.thomas_cx[0], m.thomas_denomx[0] ); // cx_1 = 
-        for( int i = 1; i <= xLength - 1; i++ )
-        {
-            VectorUtil.axpy( m.thomas_denomx[i], m.thomas_constant1, m.thomas_cx[i - 1] );
-            VectorUtil.div( m.thomas_cx[i], m.thomas_denomx[i] ); // the value at  size-1 is not actually used  
-        }
-
-        //y coefficients the same as for x
-        m.thomas_cy = VectorUtil.assign( yLength, m.thomas_constant1a );
-        m.thomas_denomy = VectorUtil.assign( yLength, m.thomas_constant3 );
-        m.thomas_denomy[0] = m.thomas_constant3a.clone();
-        m.thomas_denomy[yLength - 1] = m.thomas_constant3a.clone();
-        if( yLength == 1 )
-            m.thomas_denomy[0] = VectorUtil.newSum( m.one, m.thomas_constant2 );
-        VectorUtil.div( m.thomas_cy[0], m.thomas_denomy[0] );
-
-        for( int i = 1; i <= yLength - 1; i++ )
+    /**
+     * Forward sweep part which does not depend on densities: Thomas coefficients c' and denom for the line of length denom.length.
+     * Constants m.thomas_constant1, m.thomas_constant1a, m.thomas_constant2, m.thomas_constant3, m.thomas_constant3a should be already computed.
+     */
+    static void computeThomasCoefficients(Microenvironment m, double[][] denom, double[][] c)
+    {
+        int length = denom.length;
+        //First step: c' = c_i , denom = b_i 
+        for( int i = 0; i < length; i++ )
         {
-            VectorUtil.axpy( m.thomas_denomy[i], m.thomas_constant1, m.thomas_cy[i - 1] );
-            VectorUtil.div( m.thomas_cy[i], m.thomas_denomy[i] ); // the value at  size-1 is not actually used  
+            c[i] = m.thomas_constant1a.clone();
+            denom[i] = m.thomas_constant3.clone();
         }
+        denom[0] = m.thomas_constant3a.clone();
+        denom[length - 1] = m.thomas_constant3a.clone();
 
-        //z coefficients the same as for x
-        m.thomas_cz = VectorUtil.assign( zLength, m.thomas_constant1a );
-        m.thomas_denomz = VectorUtil.assign( zLength, m.thomas_constant3 );
-        m.thomas_denomz[0] = m.thomas_constant3a.clone();
-        m.thomas_denomz[zLength - 1] = m.thomas_constant3a.clone();
-        if( zLength == 1 )
-            m.thomas_denomz[0] = VectorUtil.newSum( m.one, m.thomas_constant2 );
+        if( length == 1 ) //degenerate case
+            denom[0] = VectorUtil.newSum( m.one, m.thomas_constant2 );
 
-        VectorUtil.div( m.thomas_cz[0], m.thomas_denomz[0] );
-
-        for( int i = 1; i <= zLength - 1; i++ )
+        //Second step:
+        // c'_i = c_i  / (b_i - a_i * c'_(i-1))
+        // denom_i = (b_i - a_i * c'_(i-1)) - stored for future use
+        VectorUtil.div( c[0], denom[0] );
+        for( int i = 1; i <= length - 1; i++ )
         {
-            VectorUtil.axpy( m.thomas_denomz[i], m.thomas_constant1, m.thomas_cz[i - 1] );
-            VectorUtil.div( m.thomas_cz[i], m.thomas_denomz[i] ); // the value at  size-1 is not actually used  
+            VectorUtil.axpy( denom[i], m.thomas_constant1, c[i - 1] );
+            VectorUtil.div( c[i], denom[i] ); // the value at  size-1 is not actually used  
         }
-        m.diffusion_solver_setup_done = true;
     }
 
     @Override
@@ -165,79 +190,82 @@ public class ConstantCoefficientsLOD3D extends DiffusionDecaySolver
         if( !m.diffusion_solver_setup_done )
             setup( m, dt );
 
-        // x-diffusion 
+        // substrates with larger diffusion time step are not advanced at each step
+        int[] substrates = m.substrates_to_diffuse();
+        ForkJoinPool pool = this.pool != null ? this.pool : m.getPool();
+        if( substrates.length == 0 )
+            return;
+
+        // x-diffusion, lines are enumerated by (j,k)
         m.apply_dirichlet_conditions();
-        for( int k = 0; k < zLength; k++ ) //        #pragma omp parallel for 
-        {
-            for( int j = 0; j < yLength; j++ )
-            {
-                // Thomas solver, x-direction remaining part of forward sweep, using pre-computed quantities 
-                int n = m.voxel_index( 0, j, k );
-                VectorUtil.div( density[n], m.thomas_denomx[0] );
-                for( int i = 1; i < xLength; i++ )
-                {
-                    n = m.voxel_index( i, j, k );
-                    VectorUtil.axpy( density[n], m.thomas_constant1, density[n - m.thomas_i_jump] );
-                    VectorUtil.div( density[n], m.thomas_denomx[i] );
-                }
-                //back substitution
-                for( int i = xLength - 2; i >= 0; i-- )
-                {
-                    n = m.voxel_index( i, j, k );
-                    VectorUtil.naxpy( density[n], m.thomas_cx[i], density[n + m.thomas_i_jump] );
-                }
-            }
-        }
-        // y-diffusion 
+        ParallelUtil.forEach( pool, yLength * zLength, line -> solveX( m, substrates, line % yLength, line / yLength ) );
+
+        // y-diffusion, lines are enumerated by (i,k)
+        m.apply_dirichlet_conditions();
+        ParallelUtil.forEach( pool, xLength * zLength, line -> solveY( m, substrates, line % xLength, line / xLength ) );
+
+        // z-diffusion, lines are enumerated by (i,j)
+        m.apply_dirichlet_conditions();
+        ParallelUtil.forEach( pool, xLength * yLength, line -> solveZ( m, substrates, line % xLength, line / xLength ) );
+
         m.apply_dirichlet_conditions();
-        for( int k = 0; k < zLength; k++ ) //        #pragma omp parallel for
+        // reset gradient vectors 
+        //  M.reset_all_gradient_vectors(); 
+        return;
+    }
+
+    /**
+     * Thomas solver, x-direction remaining part of forward sweep and back substitution for the line (j,k)
+     */
+    private void solveX(Microenvironment m, int[] substrates, int j, int k)
+    {
+        solveLine( m, substrates, m.voxel_index( 0, j, k ), m.thomas_i_jump, xLength, m.thomas_denomx, m.thomas_cx );
+    }
+
+    /**
+     * Thomas solver, y-direction remaining part of forward sweep and back substitution for the line (i,k)
+     */
+    private void solveY(Microenvironment m, int[] substrates, int i, int k)
+    {
+        solveLine( m, substrates, m.voxel_index( i, 0, k ), m.thomas_j_jump, yLength, m.thomas_denomy, m.thomas_cy );
+    }
+
+    /**
+     * Thomas solver, z-direction remaining part of forward sweep and back substitution for the line (i,j)
+     */
+    private void solveZ(Microenvironment m, int[] substrates, int i, int j)
+    {
+        solveLine( m, substrates, m.voxel_index( i, j, 0 ), m.thomas_k_jump, zLength, m.thomas_denomz, m.thomas_cz );
+    }
+
+    /**
+     * Thomas solver along one mesh line for given substrates, works directly with flat density storage
+     * @param start index of the first voxel in line
+     * @param jump offset of voxel index between neighboring voxels in line
+     * @param length number of voxels in line
+     */
+    static void solveLine(Microenvironment m, int[] substrates, int start, int jump, int length, double[][] denom, double[][] c)
+    {
+        DensityStorage storage = m.density;
+        double[] p = storage.data;
+        double[] constant1 = m.thomas_constant1;
+        int step = jump * storage.voxelStride;
+        for( int q : substrates )
         {
-            for( int i = 0; i < xLength; i++ )
+            int index = storage.index( start, q );
+            p[index] /= denom[0][q];
+            for( int l = 1; l < length; l++ ) // should be an empty loop if length < 2
             {
-                // Thomas solver, y-direction remaining part of forward sweep, using pre-computed quantities  
-                int n = m.voxel_index( i, 0, k );
-                VectorUtil.div( density[n], m.thomas_denomy[0] );
-                for( int j = 1; j < yLength; j++ )
-                {
-                    n = m.voxel_index( i, j, k );
-                    VectorUtil.axpy( density[n], m.thomas_constant1, density[n - m.thomas_j_jump] );
-                    VectorUtil.div( density[n], m.thomas_denomy[j] );
-                }
-                // back substitution 
-                for( int j = yLength - 2; j >= 0; j-- )
-                {
-                    n = m.voxel_index( i, j, k );
-                    VectorUtil.naxpy( density[n], m.thomas_cy[j], density[n + m.thomas_j_jump] );
-                }
+                index += step;
+                p[index] += constant1[q] * p[index - step];
+                p[index] /= denom[l][q];
             }
-        }
-        // z-diffusion 
-        m.apply_dirichlet_conditions();
-        for( int j = 0; j < yLength; j++ ) //     #pragma omp parallel for 
-        {
-            for( int i = 0; i < xLength; i++ )
+            //back substitution
+            for( int l = length - 2; l >= 0; l-- )
             {
-                // Thomas solver, z-direction remaining part of forward sweep, using pre-computed quantities 
-                int n = m.voxel_index( i, j, 0 );
-                VectorUtil.div( density[n], m.thomas_denomz[0] );
-                // should be an empty loop if mesh.z_coordinates.length < 2  
-                for( int k = 1; k < zLength; k++ )
-                {
-                    n = m.voxel_index( i, j, k );
-                    VectorUtil.axpy( density[n], m.thomas_constant1, density[n - m.thomas_k_jump] );
-                    VectorUtil.div( density[n], m.thomas_denomz[k] );
-                }
-                // back substitution
-                for( int k = zLength - 2; k >= 0; k-- )
-                {
-                    n = m.voxel_index( i, j, k );
-                    VectorUtil.naxpy( density[n], m.thomas_cz[k], density[n + m.thomas_k_jump] );
-                }
+                index -= step;
+                p[index] -= c[l][q] * p[index + step];
             }
         }
-        m.apply_dirichlet_conditions();
-        // reset gradient vectors 
-        //  M.reset_all_gradient_vectors(); 
-        return;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,233 @@
+package ru.biosoft.physicell.biofvm;
+
+/**
+ * Densities of all substrates in all voxels stored in a single contiguous array.<br>
+ * Value of substrate q in voxel n is located at data[n * voxelStride + q * substrateStride].<br>
+ * Depending on layout either densities of one voxel (VOXEL_MAJOR) or values of one substrate over the whole mesh (SUBSTRATE_MAJOR) are adjacent.
+ */
+public class DensityStorage
+{
+    public enum Layout
+    {
+        /** data[n * substrates + q], vector of densities for each voxel is contiguous */
+        VOXEL_MAJOR,
+        /** data[q * voxels + n], field of each substrate is contiguous */
+        SUBSTRATE_MAJOR
+    }
+
+    private Layout layout;
+    private int voxels;
+    private int substrates;
+    int voxelStride;
+    int substrateStride;
+    double[] data;
+
+    public DensityStorage(int voxels, int substrates)
+    {
+        this( voxels, substrates, Layout.VOXEL_MAJOR );
+    }
+
+    public DensityStorage(int voxels, int substrates, Layout layout)
+    {
+        this.voxels = voxels;
+        this.substrates = substrates;
+        this.layout = layout;
+        this.data = new double[voxels * substrates];
+        updateStrides();
+    }
+
+    private void updateStrides()
+    {
+        if( layout == Layout.VOXEL_MAJOR )
+        {
+            voxelStride = substrates;
+            substrateStride = 1;
+        }
+        else
+        {
+            voxelStride = 1;
+            substrateStride = voxels;
+        }
+    }
+
+    public Layout getLayout()
+    {
+        return layout;
+    }
+
+    public int getVoxelsCount()
+    {
+        return voxels;
+    }
+
+    public int getSubstratesCount()
+    {
+        return substrates;
+    }
+
+    /**
+     * Offset between values of the same substrate in neighboring voxels (n and n+1)
+     */
+    public int getVoxelStride()
+    {
+        return voxelStride;
+    }
+
+    /**
+     * Offset between values of neighboring substrates (q and q+1) in the same voxel
+     */
+    public int getSubstrateStride()
+    {
+        return substrateStride;
+    }
+
+    /**
+     * Underlying array. Note that it is reallocated on resize and layout change.
+     */
+    public double[] getData()
+    {
+        return data;
+    }
+
+    public int index(int voxel, int substrate)
+    {
+        return voxel * voxelStride + substrate * substrateStride;
+    }
+
+    public double get(int voxel, int substrate)
+    {
+        return data[voxel * voxelStride + substrate * substrateStride];
+    }
+
+    public void set(int voxel, int substrate, double value)
+    {
+        data[voxel * voxelStride + substrate * substrateStride] = value;
+    }
+
+    public void add(int voxel, int substrate, double value)
+    {
+        data[voxel * voxelStride + substrate * substrateStride] += value;
+    }
+
+    /**
+     * Returns copy of densities in given voxel
+     */
+    public double[] getVoxel(int voxel)
+    {
+        return getVoxel( voxel, new double[substrates] );
+    }
+
+    /**
+     * Copies densities in given voxel into target array and returns it
+     */
+    public double[] getVoxel(int voxel, double[] target)
+    {
+        int index = voxel * voxelStride;
+        for( int q = 0; q < substrates; q++, index += substrateStride )
+            target[q] = data[index];
+        return target;
+    }
+
+    public void setVoxel(int voxel, double[] values)
+    {
+        int index = voxel * voxelStride;
+        for( int q = 0; q < substrates; q++, index += substrateStride )
+            data[index] = values[q];
+    }
+
+    /**
+     * Sets value of substrate in all voxels
+     */
+    public void fill(int substrate, double value)
+    {
+        for( int n = 0; n < voxels; n++ )
+            data[n * voxelStride + substrate * substrateStride] = value;
+    }
+
+    /**
+     * Returns live accessor for densities in given voxel, it becomes invalid after resize or layout change
+     */
+    public VoxelView view(int voxel)
+    {
+        return new VoxelView( voxel );
+    }
+
+    /**
+     * Changes sizes preserving densities in voxels and substrates which are kept, new values are zero
+     */
+    public void resize(int newVoxels, int newSubstrates)
+    {
+        relayout( newVoxels, newSubstrates, layout );
+    }
+
+    /**
+     * Changes layout preserving all densities
+     */
+    public void setLayout(Layout newLayout)
+    {
+        if( newLayout != layout )
+            relayout( voxels, substrates, newLayout );
+    }
+
+    private void relayout(int newVoxels, int newSubstrates, Layout newLayout)
+    {
+        double[] oldData = data;
+        int oldVoxelStride = voxelStride;
+        int oldSubstrateStride = substrateStride;
+        int keptVoxels = Math.min( voxels, newVoxels );
+        int keptSubstrates = Math.min( substrates, newSubstrates );
+
+        voxels = newVoxels;
+        substrates = newSubstrates;
+        layout = newLayout;
+        data = new double[newVoxels * newSubstrates];
+        updateStrides();
+
+        for( int n = 0; n < keptVoxels; n++ )
+        {
+            for( int q = 0; q < keptSubstrates; q++ )
+                data[n * voxelStride + q * substrateStride] = oldData[n * oldVoxelStride + q * oldSubstrateStride];
+        }
+    }
+
+    /**
+     * Accessor for densities of one voxel, reads and writes go directly to the storage
+     */
+    public class VoxelView
+    {
+        private final int offset;
+
+        private VoxelView(int voxel)
+        {
+            this.offset = voxel * voxelStride;
+        }
+
+        public int size()
+        {
+            return substrates;
+        }
+
+        public double get(int substrate)
+        {
+            return data[offset + substrate * substrateStride];
+        }
+
+        public void set(int substrate, double value)
+        {
+            data[offset + substrate * substrateStride] = value;
+        }
+
+        public void add(int substrate, double value)
+        {
+            data[offset + substrate * substrateStride] += value;
+        }
+
+        public double[] toArray()
+        {
+            double[] result = new double[substrates];
+            for( int q = 0; q < substrates; q++ )
+                result[q] = data[offset + q * substrateStride];
+            return result;
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package ru.biosoft.physicell.biofvm;
+
+import java.util.Arrays;
+
+/**
+ * Compact list of voxels with Dirichlet conditions.<br>
+ * Values and activation flags of node s are packed at [s * substrates + q], so applying conditions costs O(number of nodes) instead of O(number of voxels).
+ */
+public class DirichletNodes
+{
+    private int substrates;
+    private int size;
+    /*! voxel index of each node */
+    int[] voxels;
+    /*! position of voxel in the list or -1 if voxel is not a Dirichlet node */
+    private int[] nodeMap;
+    double[] values;
+    boolean[] activation;
+
+    public DirichletNodes(int voxelsCount, int substrates)
+    {
+        this.substrates = substrates;
+        nodeMap = new int[voxelsCount];
+        Arrays.fill( nodeMap, -1 );
+        voxels = new int[0];
+        values = new double[0];
+        activation = new boolean[0];
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public int getVoxel(int node)
+    {
+        return voxels[node];
+    }
+
+    public boolean contains(int voxel)
+    {
+        return nodeMap[voxel] >= 0;
+    }
+
+    /**
+     * Adds node or updates values of existing one, activation flags are set only for new nodes.
+     * @return position of the node in the list
+     */
+    public int add(int voxel, double[] value, boolean[] defaultActivation)
+    {
+        int node = nodeMap[voxel];
+        if( node < 0 )
+        {
+            ensureCapacity( size + 1 );
+            node = size++;
+            voxels[node] = voxel;
+            nodeMap[voxel] = node;
+            for( int q = 0; q < substrates; q++ )
+                activation[node * substrates + q] = defaultActivation[q];
+        }
+        System.arraycopy( value, 0, values, node * substrates, substrates );
+        return node;
+    }
+
+    /**
+     * Removes node, the last node takes its place in the list
+     */
+    public void remove(int voxel)
+    {
+        int node = nodeMap[voxel];
+        if( node < 0 )
+            return;
+        int last = --size;
+        if( node != last )
+        {
+            voxels[node] = voxels[last];
+            nodeMap[voxels[node]] = node;
+            System.arraycopy( values, last * substrates, values, node * substrates, substrates );
+            System.arraycopy( activation, last * substrates, activation, node * substrates, substrates );
+        }
+        nodeMap[voxel] = -1;
+    }
+
+    public void clear()
+    {
+        for( int i = 0; i < size; i++ )
+            nodeMap[voxels[i]] = -1;
+        size = 0;
+    }
+
+    public double getValue(int voxel, int substrate)
+    {
+        return values[nodeMap[voxel] * substrates + substrate];
+    }
+
+    public void setValue(int voxel, int substrate, double value)
+    {
+        values[nodeMap[voxel] * substrates + substrate] = value;
+    }
+
+    public boolean isActive(int voxel, int substrate)
+    {
+        int node = nodeMap[voxel];
+        return node >= 0 && activation[node * substrates + substrate];
+    }
+
+    public void setActive(int voxel, int substrate, boolean active)
+    {
+        activation[nodeMap[voxel] * substrates + substrate] = active;
+    }
+
+    /**
+     * Sets activation of substrate in all nodes
+     */
+    public void setActive(int substrate, boolean active)
+    {
+        for( int i = 0; i < size; i++ )
+            activation[i * substrates + substrate] = active;
+    }
+
+    /**
+     * Writes values of active substrates into densities
+     */
+    public void apply(DensityStorage density)
+    {
+        double[] data = density.data;
+        int voxelStride = density.voxelStride;
+        int substrateStride = density.substrateStride;
+        for( int i = 0, offset = 0; i < size; i++, offset += substrates )
+        {
+            int index = voxels[i] * voxelStride;
+            for( int q = 0; q < substrates; q++, index += substrateStride )
+            {
+                if( activation[offset + q] )
+                    data[index] = values[offset + q];
+            }
+        }
+    }
+
+    /**
+     * Changes number of substrates keeping values of existing ones, new substrates get given value and activation
+     */
+    public void resizeSubstrates(int newSubstrates, double defaultValue, boolean defaultActivation)
+    {
+        double[] newValues = new double[voxels.length * newSubstrates];
+        boolean[] newActivation = new boolean[voxels.length * newSubstrates];
+        int kept = Math.min( substrates, newSubstrates );
+        for( int i = 0; i < size; i++ )
+        {
+            System.arraycopy( values, i * substrates, newValues, i * newSubstrates, kept );
+            System.arraycopy( activation, i * substrates, newActivation, i * newSubstrates, kept );
+            for( int q = kept; q < newSubstrates; q++ )
+            {
+                newValues[i * newSubstrates + q] = defaultValue;
+                newActivation[i * newSubstrates + q] = defaultActivation;
+            }
+        }
+        substrates = newSubstrates;
+        values = newValues;
+        activation = newActivation;
+    }
+
+    private void ensureCapacity(int capacity)
+    {
+        if( capacity <= voxels.length )
+            return;
+        int newCapacity = Math.max( capacity, voxels.length * 2 );
+        voxels = Arrays.copyOf( voxels, newCapacity );
+        values = Arrays.copyOf( values, newCapacity * substrates );
+        activation = Arrays.copyOf( activation, newCapacity * substrates );
+    }
+}
@@ -3,8 +3,11 @@ package ru.biosoft.physicell.biofvm;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
-import java.util.HashSet;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /*
 #############################################################################
@@ -55,26 +58,41 @@ import java.util.Set;
 */
 public class Microenvironment
 {
-    private Set<BasicAgent> agents = new HashSet<>();
+    private AgentRegistry<BasicAgent> agents = new AgentRegistry<>();
+    private int maxAgentId = 0;
 
-    public <T extends BasicAgent> Set<T> getAgents(Class<T> clazz)
+    @SuppressWarnings ( "unchecked")
+    public <T extends BasicAgent> AgentRegistry<T> getAgents(Class<T> clazz)
     {
-        return (Set<T>)agents;
+        return (AgentRegistry<T>) (AgentRegistry<?>)agents;
     }
 
-    public Set<BasicAgent> getAgents()
+    /**
+     * Returns all agents, position of agent in the registry is BasicAgent.index
+     */
+    public AgentRegistry<BasicAgent> getAgents()
     {
         return agents;
     }
 
+    /**
+     * Returns unique ID for a new agent, IDs are counted from 0 in each microenvironment
+     */
+    int nextAgentId()
+    {
+        return maxAgentId++;
+    }
+
     public void addAgent(BasicAgent agent)
     {
-        agents.add( agent );
+        if( agents.add( agent ) )
+            markSourcesChanged();
     }
 
     public void removeAgent(BasicAgent agent)
     {
-        agents.remove( agent );
+        if( agents.remove( agent ) )
+            markSourcesChanged();
     }
 
     public int getAgentsCount()
@@ -84,26 +102,54 @@ public class Microenvironment
 
     public MicroenvironmentOptions options;
     private DiffusionDecaySolver solver;
+    /*! if true, solver is selected by mesh: 2-D LOD for single z layer, 3-D LOD otherwise */
+    private boolean autoSelectSolver = true;
 
+    /**
+     * Sets diffusion solver explicitly, it will not be replaced on mesh resize
+     */
     public void setSolver(DiffusionDecaySolver solver)
     {
         this.solver = solver;
+        autoSelectSolver = false;
+        diffusion_solver_setup_done = false;
+    }
+
+    public DiffusionDecaySolver getSolver()
+    {
+        return solver;
+    }
+
+    /**
+     * Selects LOD solver by number of z layers unless solver was set explicitly
+     */
+    private void selectSolver()
+    {
+        diffusion_solver_setup_done = false;
+        if( !autoSelectSolver )
+            return;
+        if( mesh.z_coordinates.length == 1 )
+        {
+            if( ! ( solver instanceof ConstantCoefficientsLOD2D ) )
+                solver = new ConstantCoefficientsLOD2D();
+        }
+        else if( ! ( solver instanceof ConstantCoefficientsLOD3D ) )
+            solver = new ConstantCoefficientsLOD3D();
     }
 
-    /*! For internal use and accelerations in solvers */
-    double[][] temporary_density_vectors1;
-    /*! For internal use and accelerations in solvers */
-    double[][] temporary_density_vectors2;
     /*! for internal use in bulk source/sink solvers */
     double[][] bulk_source_sink_solver_temp1;
     double[][] bulk_source_sink_solver_temp2;
     double[][] bulk_source_sink_solver_temp3;
     boolean bulk_source_sink_solver_setup_done;
 
-    /*! stores pointer to current density solutions. Access via operator() functions. */
-    public double[][] density;
+    /*! stores current density solutions for all voxels and substrates in one flat array. */
+    DensityStorage density;
+    /*! gradients are computed on demand for each voxel and cached until densities change, allocated only if options.calculate_gradients is set */
     double[][][] gradient_vectors;
-    boolean[] gradient_vector_computed;
+    /*! gradients of voxel n are valid if gradient_vector_generation[n] == gradient_generation, volatile access publishes computed gradients to other threads */
+    AtomicLongArray gradient_vector_generation;
+    long gradient_generation = 1;
 
     /*! helpful for solvers -- resize these whenever adding/removing substrates */
     double[] one;
@@ -146,10 +192,11 @@ public class Microenvironment
     std::vector< std::vector<double> > dirichlet_value_vectors; 
     std::vector<bool> dirichlet_node_map; 
     */
-    double[][] dirichlet_value_vectors;
+    /*! default activation of substrates for new Dirichlet nodes */
     boolean[] dirichlet_activation_vector;
     /* new in Version 1.7.0 -- activation vectors can be specified on a voxel-by-voxel basis */
-    boolean[][] dirichlet_activation_vectors;
+    /*! Dirichlet voxels with packed values and activation flags */
+    DirichletNodes dirichletNodes;
 
     /*! The mesh for the diffusing quantities */
     public CartesianMesh mesh;
@@ -165,6 +212,10 @@ public class Microenvironment
     // coefficients 
     public double[] diffusion_coefficients;
     public double[] decay_rates;
+    /*! diffusion of substrate q is solved every diffusion_dt_multiples[q] steps with time step dt*diffusion_dt_multiples[q] */
+    int[] diffusion_dt_multiples;
+    /*! number of solved diffusion steps, defines which substrates are advanced */
+    private long diffusionStep;
     double[][] supply_target_densities_times_supply_rates;
     double[][] supply_rates;
     double[][] uptake_rates;
@@ -198,32 +249,29 @@ public class Microenvironment
         thomas_setup_done = false;
         diffusion_solver_setup_done = false;
 
-        solver = new ConstantCoefficientsLOD3D();
-
         mesh = new CartesianMesh();
         mesh.resize( 1, 1, 1 );
+        selectSolver();
 
         one = new double[] {1};
         zero = new double[] {0};
 
-        temporary_density_vectors1 = new double[mesh.voxels.length][1];
-        temporary_density_vectors2 = new double[mesh.voxels.length][1];
-        density = temporary_density_vectors1;
+        density = new DensityStorage( mesh.voxels.length, 1 );
 
-        gradient_vectors = new double[mesh.voxels.length][1][3];
-        gradient_vector_computed = new boolean[mesh.voxels.length];
+        gradient_vectors = null;
+        gradient_vector_generation = null;
 
         density_names = new String[] {"unnamed"};
         density_units = new String[] {"none"};
 
         diffusion_coefficients = new double[number_of_densities()];
         decay_rates = new double[number_of_densities()];
+        diffusion_dt_multiples = new int[] {1};
         one_half = new double[] {0.5};
         one_third = new double[] {1.0 / 3.0};
 
-        dirichlet_value_vectors = VectorUtil.assign( mesh.voxels.length, one );
         dirichlet_activation_vector = new boolean[] {false};
-        dirichlet_activation_vectors = VectorUtil.assign( 1, dirichlet_activation_vector );
+        dirichletNodes = new DirichletNodes( mesh.voxels.length, 1 );
 
         options = new MicroenvironmentOptions( this );
         options.Dirichlet_all = new boolean[] {true};
@@ -259,30 +307,19 @@ public class Microenvironment
         // update coefficients 
         diffusion_coefficients = VectorUtil.push_back( diffusion_coefficients, diffusion_constant );
         decay_rates = VectorUtil.push_back( decay_rates, decay_rate );
+        diffusion_dt_multiples = VectorUtil.push_back( diffusion_dt_multiples, 1 );
 
         // update sources and such 
-        for( int i = 0; i < temporary_density_vectors1.length; i++ )
-        {
-            temporary_density_vectors1[i] = VectorUtil.push_back( temporary_density_vectors1[i], 0.0 );
-            temporary_density_vectors2[i] = VectorUtil.push_back( temporary_density_vectors2[i], 0.0 );
-        }
+        density.resize( mesh.voxels.length, density.getSubstratesCount() + 1 );
 
-        // resize the gradient data structures 
-        for( int k = 0; k < mesh.voxels.length; k++ )
-        {
-            gradient_vectors[k] = VectorUtil.resize( gradient_vectors[k], number_of_densities() );
-            for( int i = 0; i < number_of_densities(); i++ )
-            {
-                gradient_vectors[k][i] = VectorUtil.resize( gradient_vectors[k][i], 3 );
-            }
-        }
-        gradient_vector_computed = VectorUtil.resize( gradient_vector_computed, mesh.voxels.length );
+        // gradient data structures will be reallocated on demand 
+        gradient_vectors = null;
+        gradient_vector_generation = null;
 
-        dirichlet_value_vectors = VectorUtil.assign( mesh.voxels.length, one );
         //        dirichlet_value_vectors.assign( mesh.voxels.size(), one );
         dirichlet_activation_vector = VectorUtil.push_back( dirichlet_activation_vector, false );
         //        dirichlet_activation_vectors.assign( mesh.voxels.size(), dirichlet_activation_vector );
-        dirichlet_activation_vectors = VectorUtil.assign( mesh.voxels.length, dirichlet_activation_vector );
+        dirichletNodes.resizeSubstrates( number_of_densities(), 1.0, false );
 
         // fix in PhysiCell preview November 2017 
         options.Dirichlet_condition_vector = VectorUtil.push_back( options.Dirichlet_condition_vector, 1.0 ); // = one; 
@@ -309,15 +346,157 @@ public class Microenvironment
         options.Dirichlet_zmax_values = VectorUtil.push_back( options.Dirichlet_zmax_values, 1.0 );
     }
 
-    public double[] get(int n)
+    /*! quasi-steady-state mode, null if disabled */
+    private QuasiSteadyState quasiSteadyState;
+    /*! number of diffusion steps in quasi-steady-state mode, skipping decision is made once for each step */
+    long steadyStateStep;
+
+    /**
+     * Enables quasi-steady-state mode: sources/sinks and diffusion are skipped while field does not change, null disables it
+     */
+    public void setQuasiSteadyState(QuasiSteadyState quasiSteadyState)
     {
-        return density[n];
+        this.quasiSteadyState = quasiSteadyState;
+    }
+
+    public QuasiSteadyState getQuasiSteadyState()
+    {
+        return quasiSteadyState;
+    }
+
+    /**
+     * Should be called when secretion/uptake of agents is changed, in quasi-steady-state mode forces next step to be solved
+     */
+    public void markSourcesChanged()
+    {
+        if( quasiSteadyState != null )
+            quasiSteadyState.markSourcesChanged();
+    }
+
+    /**
+     * Called when source/sink constants of an agent are recomputed, in quasi-steady-state mode forces next step to be solved
+     * only if relative change of constants exceeds QuasiSteadyState.getSourcesTolerance()
+     */
+    public void markSourcesChanged(double relativeChange)
+    {
+        if( quasiSteadyState != null && relativeChange > quasiSteadyState.getSourcesTolerance() )
+            quasiSteadyState.markSourcesChanged();
+    }
+
+    /*! pool used for parallel stages (sources/sinks and diffusion unless solver has its own pool), null means serial execution */
+    private ForkJoinPool pool;
+    /*! agents grouped by voxels for parallel sources/sinks stage, reused between steps */
+    private AgentsByVoxel agentsByVoxel = new AgentsByVoxel();
+    /*! if true, sources and sinks of all agents in voxel are combined into one implicit update */
+    private boolean aggregateSourcesAndSinks;
+
+    public void setPool(ForkJoinPool pool)
+    {
+        this.pool = pool;
+    }
+
+    public ForkJoinPool getPool()
+    {
+        return pool;
+    }
+
+    /**
+     * In aggregated mode secretion and uptake of all agents in a voxel are summed and applied as one implicit update:<br>
+     * p* = ( p + sum(temp1) ) / ( 1 + sum(temp2 - 1) ), p(n+1) = p* + sum(export2).<br>
+     * Result does not depend on the order of agents. It differs from sequential per-agent updates by O(dt^2).
+     */
+    public void setAggregateSourcesAndSinks(boolean aggregateSourcesAndSinks)
+    {
+        this.aggregateSourcesAndSinks = aggregateSourcesAndSinks;
+    }
+
+    public boolean isAggregateSourcesAndSinks()
+    {
+        return aggregateSourcesAndSinks;
     }
 
     public void simulate_cell_sources_and_sinks(Set<BasicAgent> agents, double dt)
     {
-        for( BasicAgent agent : agents )
-            agent.simulateSecretionUptake( this, dt );
+        if( quasiSteadyState != null && quasiSteadyState.skipStep( this ) )
+            return;
+        reset_all_gradient_vectors();
+        apply_sources_and_sinks( agents, dt );
+    }
+
+    /**
+     * Applies secretion and uptake of given agents to densities.<br>
+     * If pool is set agents are grouped by voxel and different voxels are processed in parallel,
+     * agents in the same voxel are processed by one thread in the order of collection, so result is the same as for serial execution.
+     */
+    public void apply_sources_and_sinks(Collection<? extends BasicAgent> agents, double dt)
+    {
+        if( aggregateSourcesAndSinks )
+        {
+            AgentsByVoxel grouped = agentsByVoxel;
+            grouped.group( agents, mesh.voxels.length );
+            ParallelUtil.forEach( pool, grouped.occupiedCount,
+                    i -> apply_aggregated_sources_and_sinks( grouped, grouped.occupied[i], dt ) );
+            return;
+        }
+        if( pool == null || pool.getParallelism() < 2 )
+        {
+            for( BasicAgent agent : agents )
+                agent.simulateSecretionUptake( this, dt );
+            return;
+        }
+        AgentsByVoxel grouped = agentsByVoxel;
+        grouped.group( agents, mesh.voxels.length );
+        ParallelUtil.forEach( pool, grouped.occupiedCount, i -> {
+            int voxel = grouped.occupied[i];
+            for( int a = grouped.start[voxel]; a < grouped.start[voxel + 1]; a++ )
+                grouped.agents[a].simulateSecretionUptake( this, dt );
+        } );
+    }
+
+    /**
+     * Combined implicit source/sink update of one voxel, internalized substrates are distributed back to agents by their own fluxes
+     */
+    private void apply_aggregated_sources_and_sinks(AgentsByVoxel grouped, int voxel, double dt)
+    {
+        int start = grouped.start[voxel];
+        int end = grouped.start[voxel + 1];
+        for( int a = start; a < end; a++ )
+            grouped.agents[a].updateUptakeConstants( dt );
+
+        boolean track = options.track_internalized_substrates_in_each_agent;
+        double voxelVolume = mesh.voxels[voxel].volume;
+        double[] p = density.data;
+        int index = density.index( voxel, 0 );
+        for( int q = 0; q < number_of_densities(); q++, index += density.substrateStride )
+        {
+            double sumTemp1 = 0;
+            double sumTemp2 = 0; // sum of (temp2 - 1) = dt*(V_cell/V_voxel)*( S + U )
+            double sumExport2 = 0;
+            for( int a = start; a < end; a++ )
+            {
+                BasicAgent agent = grouped.agents[a];
+                if( !agent.isActive )
+                    continue;
+                sumTemp1 += agent.sourceSinkTemp1[q];
+                sumTemp2 += agent.sourceSinkTemp2[q] - 1;
+                sumExport2 += agent.sourceSinkExport2[q];
+            }
+            double implicitDensity = ( p[index] + sumTemp1 ) / ( 1 + sumTemp2 );
+            p[index] = implicitDensity + sumExport2;
+
+            if( !track )
+                continue;
+            for( int a = start; a < end; a++ )
+            {
+                BasicAgent agent = grouped.agents[a];
+                if( !agent.isActive )
+                    continue;
+                // agent's own part of extracellular change: temp1 - (temp2 - 1) * p*
+                double change = agent.sourceSinkTemp1[q] - ( agent.sourceSinkTemp2[q] - 1 ) * implicitDensity;
+                agent.internalizedSubstrates[q] -= change * voxelVolume;
+                agent.internalizedSubstrates[q] -= agent.sourceSinkExport1[q];
+            }
+        }
     }
 
     public void simulate_cell_sources_and_sinks(double dt)
@@ -326,9 +505,73 @@ public class Microenvironment
     }
 
     public void simulate_diffusion_decay(double dt) throws Exception
+    {
+        // outer Dirichlet conditions from options are applied at the first step after mesh is set
+        if( !dirichlet_faces_added )
+        {
+            add_dirichlet_faces();
+            dirichlet_faces_added = true;
+        }
+        if( quasiSteadyState == null )
+        {
+            solve_diffusion_decay( dt );
+            return;
+        }
+        if( !quasiSteadyState.skipStep( this ) )
+            solve_diffusion_decay( dt );
+        quasiSteadyState.endStep( this );
+        steadyStateStep++;
+    }
+
+    private void solve_diffusion_decay(double dt) throws Exception
     {
         if( solver != null )
             solver.solve( this, dt );
+        diffusionStep++;
+        reset_all_gradient_vectors();
+    }
+
+    /**
+     * Sets how often diffusion of substrate is solved: every multiple steps with time step dt*multiple.
+     * Slowly changing substrates may be advanced less often than fast ones (e.g. oxygen).
+     */
+    public void set_diffusion_dt_multiple(int substrate_index, int multiple)
+    {
+        if( multiple < 1 )
+            throw new IllegalArgumentException( "Diffusion time step multiple should be positive, got " + multiple );
+        diffusion_dt_multiples[substrate_index] = multiple;
+        diffusion_solver_setup_done = false;
+    }
+
+    public int get_diffusion_dt_multiple(int substrate_index)
+    {
+        return diffusion_dt_multiples[substrate_index];
+    }
+
+    /**
+     * Time step used by diffusion solver for each substrate when base step is dt
+     */
+    double[] diffusion_time_steps(double dt)
+    {
+        double[] result = new double[diffusion_dt_multiples.length];
+        for( int q = 0; q < result.length; q++ )
+            result[q] = dt * diffusion_dt_multiples[q];
+        return result;
+    }
+
+    /**
+     * Substrates which should be advanced by diffusion solver at current step
+     */
+    int[] substrates_to_diffuse()
+    {
+        int count = 0;
+        int[] result = new int[diffusion_dt_multiples.length];
+        for( int q = 0; q < diffusion_dt_multiples.length; q++ )
+        {
+            if( diffusionStep % diffusion_dt_multiples[q] == 0 )
+                result[count++] = q;
+        }
+        return count == result.length ? result : Arrays.copyOf( result, count );
     }
 
     void apply_dirichlet_conditions()
@@ -338,34 +581,13 @@ public class Microenvironment
         for( unsigned int i=0 ; i < dirichlet_indices.size() ; i++ )
         { density_vector( dirichlet_indices[i] ) = dirichlet_value_vectors[i]; }
         */
-
-        // #pragma omp parallel for 
-        for( int i = 0; i < mesh.voxels.length; i++ )
-        {
-            /*
-            if( mesh.voxels[i].is_Dirichlet == true )
-            { density_vector(i) = dirichlet_value_vectors[i]; }
-            */
-            if( mesh.voxels[i].isDirichlet == true )
-            {
-                for( int j = 0; j < dirichlet_value_vectors[i].length; j++ )
-                {
-                    // if( dirichlet_activation_vector[j] == true )
-                    if( dirichlet_activation_vectors[i][j] == true )
-                    {
-                        getDensity( i )[j] = dirichlet_value_vectors[i][j];
-                    }
-                }
-
-            }
-        }
-        return;
+        dirichletNodes.apply( density );
     }
 
     public void write_to_matlab(String filename)
     {
         int number_of_data_entries = mesh.voxels.length;
-        int size_of_each_datum = 3 + 1 + density[0].length;
+        int size_of_each_datum = 3 + 1 + number_of_densities();
         File f = new File( filename );
         try (BufferedWriter bw = new BufferedWriter( new FileWriter( f ) ))
         {
@@ -379,9 +601,9 @@ public class Microenvironment
                 bw.append( String.valueOf( mesh.voxels[i].volume ) + "\t" );
 
                 // densities  
-                for( int j = 0; j < density[i].length; j++ )
+                for( int j = 0; j < number_of_densities(); j++ )
                 {
-                    bw.append( String.valueOf( density[i][j] ) + "\t" );
+                    bw.append( String.valueOf( density.get( i, j ) ) + "\t" );
                 }
                 bw.append( "\n" );
             }
@@ -498,16 +720,67 @@ public class Microenvironment
         return mesh.voxel_index( i, j, k );
     }
 
-    /*! access the density vector at  [ X(i),Y(j),Z(k) ] */
-    double[] density_vector(int i, int j, int k)
+    /*! copy of the density vector at  [ X(i),Y(j),Z(k) ], changes of the copy are not written back */
+    double[] density_vector_copy(int i, int j, int k)
+    {
+        return density.getVoxel( voxel_index( i, j, k ) );
+    }
+
+    /**
+     * Returns copy of the density vector at [x,y,z](n), changes of the copy are not written back.
+     * Use setDensity(n, substrate, value) or getDensityView(n) to change densities.
+     */
+    public double[] getDensityCopy(int voxel_index)
     {
-        return density[voxel_index( i, j, k )];
+        return density.getVoxel( voxel_index );
     }
 
-    /*! access the density vector at [x,y,z](n) */
+    /**
+     * @deprecated returns copy, use getDensityCopy(n)
+     */
+    @Deprecated
     public double[] getDensity(int voxel_index)
     {
-        return density[voxel_index];
+        return getDensityCopy( voxel_index );
+    }
+
+    /**
+     * @deprecated returns copy, use getDensityCopy(n)
+     */
+    @Deprecated
+    public double[] get(int n)
+    {
+        return getDensityCopy( n );
+    }
+
+    /*! density of given substrate at [x,y,z](n) */
+    public double getDensity(int voxel_index, int substrate_index)
+    {
+        return density.get( voxel_index, substrate_index );
+    }
+
+    public void setDensity(int voxel_index, int substrate_index, double value)
+    {
+        density.set( voxel_index, substrate_index, value );
+    }
+
+    /*! live accessor for densities at [x,y,z](n) */
+    public DensityStorage.VoxelView getDensityView(int voxel_index)
+    {
+        return density.view( voxel_index );
+    }
+
+    public DensityStorage getDensityStorage()
+    {
+        return density;
+    }
+
+    /**
+     * Changes memory layout of densities (voxel-major by default), values are preserved
+     */
+    public void setDensityLayout(DensityStorage.Layout layout)
+    {
+        density.setLayout( layout );
     }
 
     int nearest_voxel_index(double[] position)
@@ -530,7 +803,7 @@ public class Microenvironment
 
     public int number_of_densities()
     {
-        return density[0].length;
+        return density.getSubstratesCount();
     }
 
     public int number_of_voxels()
@@ -553,25 +826,23 @@ public class Microenvironment
             double y_nodes, double z_nodes)
     {
         mesh.resize( x_start, x_end, y_start, y_end, z_start, z_end, x_nodes, y_nodes, z_nodes );
-        temporary_density_vectors1 = new double[mesh.voxels.length][zero.length];
-        density = temporary_density_vectors1;
-        temporary_density_vectors2 = new double[mesh.voxels.length][zero.length];
-        gradient_vectors = new double[mesh.voxels.length][number_of_densities()][3];
-        gradient_vector_computed = new boolean[mesh.voxels.length];
-        dirichlet_value_vectors = VectorUtil.assign( mesh.voxels.length, one );
-        dirichlet_activation_vectors = VectorUtil.assign( mesh.voxels.length, dirichlet_activation_vector );
+        selectSolver();
+        density = new DensityStorage( mesh.voxels.length, zero.length, density.getLayout() );
+        gradient_vectors = null;
+        gradient_vector_generation = null;
+        dirichletNodes = new DirichletNodes( mesh.voxels.length, number_of_densities() );
+        dirichlet_faces_added = false;
     }
 
     void resize_space(int x_nodes, int y_nodes, int z_nodes)
     {
         mesh.resize( x_nodes, y_nodes, z_nodes );
-        temporary_density_vectors1 = new double[mesh.voxels.length][];
-        density = temporary_density_vectors1;
-        temporary_density_vectors2 = new double[mesh.voxels.length][];
-        gradient_vectors = new double[mesh.voxels.length][number_of_densities()][3];
-        gradient_vector_computed = new boolean[mesh.voxels.length];
-        dirichlet_value_vectors = VectorUtil.assign( mesh.voxels.length, one );
-        dirichlet_activation_vectors = VectorUtil.assign( mesh.voxels.length, dirichlet_activation_vector );
+        selectSolver();
+        density = new DensityStorage( mesh.voxels.length, zero.length, density.getLayout() );
+        gradient_vectors = null;
+        gradient_vector_generation = null;
+        dirichletNodes = new DirichletNodes( mesh.voxels.length, number_of_densities() );
+        dirichlet_faces_added = false;
 
     }
 
@@ -622,173 +893,142 @@ public class Microenvironment
         return -1;
     }
 
-    public void compute_all_gradient_vectors()
+    /**
+     * Marks all cached gradients as outdated, should be called whenever densities are changed.
+     * Gradient storage is allocated here if options.calculate_gradients is set.
+     */
+    public void reset_all_gradient_vectors()
     {
-        double two_dx = mesh.dx;
-        double two_dy = mesh.dy;
-        double two_dz = mesh.dz;
-        boolean gradient_constants_defined = false;
-        if( gradient_constants_defined == false )
-        {
-            two_dx *= 2.0;
-            two_dy *= 2.0;
-            two_dz *= 2.0;
-            gradient_constants_defined = true;
-        }
+        if( gradient_vector_generation != null )
+            gradient_generation++;
+        else if( options.calculate_gradients )
+            allocate_gradient_vectors();
+    }
 
-        //        #pragma omp parallel for 
-        for( int k = 0; k < mesh.z_coordinates.length; k++ )
+    private void allocate_gradient_vectors()
+    {
+        gradient_vectors = new double[mesh.voxels.length][number_of_densities()][3];
+        gradient_vector_generation = new AtomicLongArray( mesh.voxels.length );
+    }
+
+    /**
+     * Returns gradients of all substrates in voxel n, they are computed on first request after densities change.<br>
+     * May be called from several threads: gradients of voxel are computed once under lock of the voxel.
+     * Densities should not be changed concurrently.<br>
+     * If options.calculate_gradients is not set, zero gradients are returned (as BioFVM which does not compute them in this case).
+     * Result should not be modified.
+     */
+    public double[][] gradient_vector(int n)
+    {
+        if( !options.calculate_gradients )
+            return new double[number_of_densities()][3];
+        if( gradient_vectors == null )
+            allocate_gradient_vectors();
+        double[][] gradient = gradient_vectors[n];
+        if( gradient_vector_generation.get( n ) != gradient_generation )
         {
-            for( int j = 0; j < mesh.y_coordinates.length; j++ )
+            synchronized( gradient )
             {
-                // endcaps 
-                for( int q = 0; q < number_of_densities(); q++ )
-                {
-                    int i = 0;
-                    int n = voxel_index( i, j, k );
-                    // x-derivative of qth substrate at voxel n
-                    gradient_vectors[n][q][0] = density[n + thomas_i_jump][q];
-                    gradient_vectors[n][q][0] -= density[n][q];
-                    gradient_vectors[n][q][0] /= mesh.dx;
-
-                    gradient_vector_computed[n] = true;
-                }
-                for( int q = 0; q < number_of_densities(); q++ )
-                {
-                    int i = mesh.x_coordinates.length - 1;
-                    int n = voxel_index( i, j, k );
-                    // x-derivative of qth substrate at voxel n
-                    gradient_vectors[n][q][0] = ( density )[n][q];
-                    gradient_vectors[n][q][0] -= ( density )[n - thomas_i_jump][q];
-                    gradient_vectors[n][q][0] /= mesh.dx;
-
-                    gradient_vector_computed[n] = true;
-                }
-
-                for( int i = 1; i < mesh.x_coordinates.length - 1; i++ )
-                {
-                    for( int q = 0; q < number_of_densities(); q++ )
-                    {
-                        int n = voxel_index( i, j, k );
-                        // x-derivative of qth substrate at voxel n
-                        gradient_vectors[n][q][0] = ( density )[n + thomas_i_jump][q];
-                        gradient_vectors[n][q][0] -= ( density )[n - thomas_i_jump][q];
-                        gradient_vectors[n][q][0] /= two_dx;
-
-                        gradient_vector_computed[n] = true;
-                    }
-                }
-
+                if( gradient_vector_generation.get( n ) != gradient_generation )
+                    compute_gradient_vector( n );
             }
         }
+        return gradient;
+    }
 
-        //        #pragma omp parallel for 
-        for( int k = 0; k < mesh.z_coordinates.length; k++ )
-        {
-            for( int i = 0; i < mesh.x_coordinates.length; i++ )
-            {
-                // endcaps 
-                for( int q = 0; q < number_of_densities(); q++ )
-                {
-                    int j = 0;
-                    int n = voxel_index( i, j, k );
-                    // x-derivative of qth substrate at voxel n
-                    gradient_vectors[n][q][1] = ( density )[n + thomas_j_jump][q];
-                    gradient_vectors[n][q][1] -= ( density )[n][q];
-                    gradient_vectors[n][q][1] /= mesh.dy;
-
-                    gradient_vector_computed[n] = true;
-                }
-                for( int q = 0; q < number_of_densities(); q++ )
-                {
-                    int j = mesh.y_coordinates.length - 1;
-                    int n = voxel_index( i, j, k );
-                    // x-derivative of qth substrate at voxel n
-                    gradient_vectors[n][q][1] = ( density )[n][q];
-                    gradient_vectors[n][q][1] -= ( density )[n - thomas_j_jump][q];
-                    gradient_vectors[n][q][1] /= mesh.dy;
-
-                    gradient_vector_computed[n] = true;
-                }
-
-                for( int j = 1; j < mesh.y_coordinates.length - 1; j++ )
-                {
-                    for( int q = 0; q < number_of_densities(); q++ )
-                    {
-                        int n = voxel_index( i, j, k );
-                        // y-derivative of qth substrate at voxel n
-                        gradient_vectors[n][q][1] = ( density )[n + thomas_j_jump][q];
-                        gradient_vectors[n][q][1] -= ( density )[n - thomas_j_jump][q];
-                        gradient_vectors[n][q][1] /= two_dy;
-                        gradient_vector_computed[n] = true;
-                    }
-                }
+    public double[][] nearest_gradient_vector(double[] position)
+    {
+        return gradient_vector( mesh.nearest_voxel_index( position ) );
+    }
 
-            }
-        }
+    public void compute_all_gradient_vectors()
+    {
+        for( int n = 0; n < mesh.voxels.length; n++ )
+            gradient_vector( n );
+    }
 
+    /**
+     * Computes gradients of all substrates in voxel n.
+     * Central differences are used inside the mesh and one-sided differences at outer faces.
+     * z component is not computed if there is no z-direction.
+     */
+    public void compute_gradient_vector(int n)
+    {
+        int[] indices = mesh.cartesian_indices( n );
+        double[][] gradient = gradient_vectors[n];
+        compute_gradient_component( gradient, n, indices[0], mesh.x_coordinates.length, 1, mesh.dx, 0 );
+        compute_gradient_component( gradient, n, indices[1], mesh.y_coordinates.length, mesh.x_coordinates.length, mesh.dy, 1 );
         // don't bother computing z component if there is no z-directoin 
-        if( mesh.z_coordinates.length == 1 )
-        {
-            return;
-        }
+        if( mesh.z_coordinates.length > 1 )
+            compute_gradient_component( gradient, n, indices[2], mesh.z_coordinates.length,
+                    mesh.x_coordinates.length * mesh.y_coordinates.length, mesh.dz, 2 );
+        gradient_vector_generation.set( n, gradient_generation );
+    }
 
-        //        #pragma omp parallel for 
-        for( int j = 0; j < mesh.y_coordinates.length; j++ )
+    /**
+     * @param l position of voxel along the line
+     * @param length number of voxels in line
+     * @param jump offset of voxel index between neighboring voxels in line
+     * @param h mesh step along line
+     * @param direction index of gradient component (0 - x, 1 - y, 2 - z)
+     */
+    private void compute_gradient_component(double[][] gradient, int n, int l, int length, int jump, double h, int direction)
+    {
+        double[] p = density.data;
+        int step = jump * density.voxelStride;
+        for( int q = 0; q < gradient.length; q++ )
         {
-            for( int i = 0; i < mesh.x_coordinates.length; i++ )
-            {
-                // endcaps 
-                for( int q = 0; q < number_of_densities(); q++ )
-                {
-                    int k = 0;
-                    int n = voxel_index( i, j, k );
-                    // x-derivative of qth substrate at voxel n
-                    gradient_vectors[n][q][2] = ( density )[n + thomas_k_jump][q];
-                    gradient_vectors[n][q][2] -= ( density )[n][q];
-                    gradient_vectors[n][q][2] /= mesh.dz;
-
-                    gradient_vector_computed[n] = true;
-                }
-                for( int q = 0; q < number_of_densities(); q++ )
-                {
-                    int k = mesh.z_coordinates.length - 1;
-                    int n = voxel_index( i, j, k );
-                    // x-derivative of qth substrate at voxel n
-                    gradient_vectors[n][q][2] = ( density )[n][q];
-                    gradient_vectors[n][q][2] -= ( density )[n - thomas_k_jump][q];
-                    gradient_vectors[n][q][2] /= mesh.dz;
-
-                    gradient_vector_computed[n] = true;
-                }
+            int index = density.index( n, q );
+            double value;
+            if( length == 1 )
+                value = 0;
+            else if( l == 0 )
+                value = ( p[index + step] - p[index] ) / h;
+            else if( l == length - 1 )
+                value = ( p[index] - p[index - step] ) / h;
+            else
+                value = ( p[index + step] - p[index - step] ) / ( 2.0 * h );
+            gradient[q][direction] = value;
+        }
+    }
 
-                for( int k = 1; k < mesh.z_coordinates.length - 1; k++ )
-                {
-                    for( int q = 0; q < number_of_densities(); q++ )
-                    {
-                        int n = voxel_index( i, j, k );
-                        // y-derivative of qth substrate at voxel n
-                        gradient_vectors[n][q][2] = ( density )[n + thomas_k_jump][q];
-                        gradient_vectors[n][q][2] -= ( density )[n - thomas_k_jump][q];
-                        gradient_vectors[n][q][2] /= two_dz;
-                        gradient_vector_computed[n] = true;
-                    }
-                }
+    /**
+     * Returns copy of the density vector in voxel nearest to position, use getDensityView to change densities
+     */
+    public double[] nearest_density_vector_copy(double[] position)
+    {
+        return density.getVoxel( mesh.nearest_voxel_index( position ) );
+    }
 
-            }
-        }
+    /**
+     * Returns copy of the density vector in voxel, use getDensityView to change densities
+     */
+    public double[] nearest_density_vector_copy(int voxel_index)
+    {
+        return density.getVoxel( voxel_index );
     }
 
+    /**
+     * @deprecated returns copy, use nearest_density_vector_copy(position)
+     */
+    @Deprecated
     public double[] nearest_density_vector(double[] position)
     {
-        return ( density )[mesh.nearest_voxel_index( position )];
+        return nearest_density_vector_copy( position );
     }
 
+    /**
+     * @deprecated returns copy, use nearest_density_vector_copy(voxel_index)
+     */
+    @Deprecated
     public double[] nearest_density_vector(int voxel_index)
     {
-        return ( density )[voxel_index];
+        return nearest_density_vector_copy( voxel_index );
     }
 
+    /**
+     * Adds Dirichlet node or updates its values, activation of new node is taken from dirichlet_activation_vector
+     */
     public void add_dirichlet_node(int voxel_index, double[] value)
     {
         mesh.voxels[voxel_index].isDirichlet = true;
@@ -796,8 +1036,130 @@ public class Microenvironment
         dirichlet_indices.push_back( voxel_index );
         dirichlet_value_vectors.push_back( value ); 
         */
+        dirichletNodes.add( voxel_index, value, dirichlet_activation_vector );
+    }
+
+    public void remove_dirichlet_node(int voxel_index)
+    {
+        mesh.voxels[voxel_index].isDirichlet = false;
+        dirichletNodes.remove( voxel_index );
+    }
+
+    public boolean is_dirichlet_node(int voxel_index)
+    {
+        return dirichletNodes.contains( voxel_index );
+    }
+
+    public int number_of_dirichlet_nodes()
+    {
+        return dirichletNodes.size();
+    }
+
+    /**
+     * Changes value of substrate in existing Dirichlet node
+     */
+    public void update_dirichlet_node(int voxel_index, int substrate_index, double new_value)
+    {
+        dirichletNodes.setValue( voxel_index, substrate_index, new_value );
+    }
 
-        dirichlet_value_vectors[voxel_index] = value; // .assign( mesh.voxels.size(), one ); 
+    /**
+     * Activates or deactivates Dirichlet condition for substrate in all nodes, including nodes added later
+     */
+    public void set_substrate_dirichlet_activation(int substrate_index, boolean new_value)
+    {
+        dirichlet_activation_vector[substrate_index] = new_value;
+        dirichletNodes.setActive( substrate_index, new_value );
+    }
+
+    /**
+     * Activates or deactivates Dirichlet condition for substrate in one existing node
+     */
+    public void set_substrate_dirichlet_activation(int substrate_index, int voxel_index, boolean new_value)
+    {
+        dirichletNodes.setActive( voxel_index, substrate_index, new_value );
+    }
+
+    public boolean get_substrate_dirichlet_activation(int substrate_index, int voxel_index)
+    {
+        return dirichletNodes.isActive( voxel_index, substrate_index );
+    }
+
+    /*! true if nodes of outer faces were registered by add_dirichlet_faces after the last mesh resize */
+    private boolean dirichlet_faces_added;
+
+    /**
+     * Registers Dirichlet nodes on outer faces of the mesh according to options (BioFVM does it in initialize_microenvironment).<br>
+     * For substrate q with options.Dirichlet_all[q] every face gets options.Dirichlet_condition_vector[q] when options.Dirichlet_activation_vector[q] is set,
+     * otherwise each face uses its own flag options.Dirichlet_xmin[q] ... options.Dirichlet_zmax[q] and value from corresponding *_values array.<br>
+     * Faces are processed in order xmin, xmax, ymin, ymax, zmin, zmax so edge voxels take values of the last face.
+     * Z faces are skipped for meshes with single z layer. Does nothing unless options.outer_Dirichlet_conditions is set.<br>
+     * Called automatically at the first diffusion step after mesh is resized.
+     */
+    public void add_dirichlet_faces()
+    {
+        if( !options.outer_Dirichlet_conditions )
+            return;
+
+        int xLength = mesh.x_coordinates.length;
+        int yLength = mesh.y_coordinates.length;
+        int zLength = mesh.z_coordinates.length;
+        add_dirichlet_face( 0, 0, yLength, zLength, options.Dirichlet_xmin, options.Dirichlet_xmin_values );
+        add_dirichlet_face( 0, xLength - 1, yLength, zLength, options.Dirichlet_xmax, options.Dirichlet_xmax_values );
+        add_dirichlet_face( 1, 0, xLength, zLength, options.Dirichlet_ymin, options.Dirichlet_ymin_values );
+        add_dirichlet_face( 1, yLength - 1, xLength, zLength, options.Dirichlet_ymax, options.Dirichlet_ymax_values );
+        if( zLength == 1 )
+            return;
+        add_dirichlet_face( 2, 0, xLength, yLength, options.Dirichlet_zmin, options.Dirichlet_zmin_values );
+        add_dirichlet_face( 2, zLength - 1, xLength, yLength, options.Dirichlet_zmax, options.Dirichlet_zmax_values );
+    }
+
+    /**
+     * Adds nodes for all voxels of the face orthogonal to axis at given layer, (a, b) enumerate two other axes in natural order
+     */
+    private void add_dirichlet_face(int axis, int layer, int aLength, int bLength, boolean[] enabled, double[] values)
+    {
+        int substrates = number_of_densities();
+        boolean[] active = new boolean[substrates];
+        double[] value = new double[substrates];
+        boolean any = false;
+        for( int q = 0; q < substrates; q++ )
+        {
+            boolean all = q < options.Dirichlet_all.length && options.Dirichlet_all[q];
+            active[q] = all ? options.Dirichlet_activation_vector[q] : q < enabled.length && enabled[q];
+            value[q] = all ? options.Dirichlet_condition_vector[q] : q < values.length ? values[q] : 1.0;
+            any |= active[q];
+        }
+        if( !any )
+            return;
+
+        for( int b = 0; b < bLength; b++ )
+        {
+            for( int a = 0; a < aLength; a++ )
+            {
+                int n;
+                if( axis == 0 )
+                    n = voxel_index( layer, a, b );
+                else if( axis == 1 )
+                    n = voxel_index( a, layer, b );
+                else
+                    n = voxel_index( a, b, layer );
+
+                boolean isNew = !dirichletNodes.contains( n );
+                if( isNew )
+                    add_dirichlet_node( n, one );
+                for( int q = 0; q < substrates; q++ )
+                {
+                    if( active[q] )
+                    {
+                        dirichletNodes.setValue( n, q, value[q] );
+                        dirichletNodes.setActive( n, q, true );
+                    }
+                    else if( isNew )
+                        dirichletNodes.setActive( n, q, false );
+                }
+            }
+        }
     }
 
 }
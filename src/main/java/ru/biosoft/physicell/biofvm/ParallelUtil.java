@@ -0,0 +1,72 @@
+package ru.biosoft.physicell.biofvm;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+/**
+ * Helpers to run loops over independent indices on a ForkJoinPool.
+ * If pool is null (or has parallelism 1) loop is executed serially in natural index order.
+ */
+public class ParallelUtil
+{
+    /**
+     * Number of chunks per worker thread, larger values give better load balancing for uneven work
+     */
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    /**
+     * Calls body for each index in [0, size). Calls for different indices must be independent.
+     */
+    public static void forEach(ForkJoinPool pool, int size, IntConsumer body)
+    {
+        forRange( pool, 0, size, body );
+    }
+
+    /**
+     * Calls body for each index in [start, end). Calls for different indices must be independent.
+     */
+    public static void forRange(ForkJoinPool pool, int start, int end, IntConsumer body)
+    {
+        int size = end - start;
+        if( pool == null || pool.getParallelism() < 2 || size < 2 )
+        {
+            for( int i = start; i < end; i++ )
+                body.accept( i );
+            return;
+        }
+        int grain = Math.max( 1, size / ( CHUNKS_PER_THREAD * pool.getParallelism() ) );
+        pool.invoke( new RangeAction( start, end, grain, body ) );
+    }
+
+    private static class RangeAction extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final int start;
+        private final int end;
+        private final int grain;
+        private final IntConsumer body;
+
+        RangeAction(int start, int end, int grain, IntConsumer body)
+        {
+            this.start = start;
+            this.end = end;
+            this.grain = grain;
+            this.body = body;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if( end - start <= grain )
+            {
+                for( int i = start; i < end; i++ )
+                    body.accept( i );
+                return;
+            }
+            int middle = ( start + end ) >>> 1;
+            invokeAll( new RangeAction( start, middle, grain, body ), new RangeAction( middle, end, grain, body ) );
+        }
+    }
+}
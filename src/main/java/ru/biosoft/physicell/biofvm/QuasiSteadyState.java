@@ -0,0 +1,210 @@
+package ru.biosoft.physicell.biofvm;
+
+import java.util.Arrays;
+
+/**
+ * Quasi-steady-state mode for microenvironment.<br>
+ * Each solved step measures max-norm change of every substrate over the step (sources/sinks + diffusion).
+ * When change of all substrates stays below tolerance for a number of consecutive steps the field is considered steady
+ * and both sources/sinks and diffusion are skipped until sources change (agents added, removed, moved to other voxel or secretion constants updated).
+ * To bound the error a step is solved anyway after maxSkippedSteps skipped steps in a row.
+ */
+public class QuasiSteadyState
+{
+    private double tolerance;
+    private int stableStepsRequired;
+    private int maxSkippedSteps;
+
+    private double[] snapshot = new double[0];
+    private double[] maxChange = new double[0];
+    private int stableSteps;
+    private int skippedInRow;
+    private boolean sourcesChanged = true;
+
+    private double sourcesTolerance = 1e-3;
+
+    /*! step for which skipping decision was made */
+    private long decidedStep = -1;
+    private boolean skipStep;
+
+    private long solvedCount;
+    private long skippedCount;
+
+    /**
+     * @param tolerance max-norm change of density per step below which substrate is considered steady
+     * @param stableStepsRequired number of consecutive steady steps before skipping starts
+     * @param maxSkippedSteps maximum number of steps skipped in a row
+     */
+    public QuasiSteadyState(double tolerance, int stableStepsRequired, int maxSkippedSteps)
+    {
+        this.tolerance = tolerance;
+        this.stableStepsRequired = stableStepsRequired;
+        this.maxSkippedSteps = maxSkippedSteps;
+    }
+
+    public double getTolerance()
+    {
+        return tolerance;
+    }
+
+    public void setTolerance(double tolerance)
+    {
+        this.tolerance = tolerance;
+    }
+
+    /**
+     * Relative change of agent source/sink constants below which sources are not considered changed
+     */
+    public double getSourcesTolerance()
+    {
+        return sourcesTolerance;
+    }
+
+    public void setSourcesTolerance(double sourcesTolerance)
+    {
+        this.sourcesTolerance = sourcesTolerance;
+    }
+
+    public int getStableStepsRequired()
+    {
+        return stableStepsRequired;
+    }
+
+    public void setStableStepsRequired(int stableStepsRequired)
+    {
+        this.stableStepsRequired = stableStepsRequired;
+    }
+
+    public int getMaxSkippedSteps()
+    {
+        return maxSkippedSteps;
+    }
+
+    public void setMaxSkippedSteps(int maxSkippedSteps)
+    {
+        this.maxSkippedSteps = maxSkippedSteps;
+    }
+
+    /**
+     * Number of steps where diffusion was solved
+     */
+    public long getSolvedCount()
+    {
+        return solvedCount;
+    }
+
+    /**
+     * Number of steps where diffusion was skipped
+     */
+    public long getSkippedCount()
+    {
+        return skippedCount;
+    }
+
+    /**
+     * Max-norm change of each substrate during the last solved step
+     */
+    public double[] getMaxChange()
+    {
+        return maxChange.clone();
+    }
+
+    public boolean isSteady()
+    {
+        return stableSteps >= stableStepsRequired;
+    }
+
+    /**
+     * Notifies that sources or sinks were changed, next step will be solved and steady state will be detected anew
+     */
+    public void markSourcesChanged()
+    {
+        sourcesChanged = true;
+    }
+
+    public void reset()
+    {
+        stableSteps = 0;
+        skippedInRow = 0;
+        sourcesChanged = true;
+        decidedStep = -1;
+        solvedCount = 0;
+        skippedCount = 0;
+    }
+
+    /**
+     * Called by microenvironment at sources/sinks and diffusion stages, decision is made once per step at the first call
+     * and is kept until microenvironment advances to the next diffusion step.
+     * @return true if current step should be skipped
+     */
+    boolean skipStep(Microenvironment m)
+    {
+        if( decidedStep == m.steadyStateStep )
+            return skipStep;
+
+        decidedStep = m.steadyStateStep;
+        if( sourcesChanged )
+        {
+            sourcesChanged = false;
+            stableSteps = 0;
+            skipStep = false;
+        }
+        else
+            skipStep = isSteady() && skippedInRow < maxSkippedSteps;
+
+        if( !skipStep )
+        {
+            skippedInRow = 0;
+            DensityStorage density = m.density;
+            if( snapshot.length != density.data.length )
+                snapshot = new double[density.data.length];
+            System.arraycopy( density.data, 0, snapshot, 0, snapshot.length );
+        }
+        return skipStep;
+    }
+
+    /**
+     * Called by microenvironment after diffusion stage, measures change over solved step
+     */
+    void endStep(Microenvironment m)
+    {
+        if( skipStep )
+        {
+            skippedInRow++;
+            skippedCount++;
+            return;
+        }
+        solvedCount++;
+
+        DensityStorage density = m.density;
+        int substrates = density.getSubstratesCount();
+        if( maxChange.length != substrates )
+            maxChange = new double[substrates];
+        if( snapshot.length != density.data.length )
+        {
+            // storage was changed during the step, can not compare
+            Arrays.fill( maxChange, Double.POSITIVE_INFINITY );
+            stableSteps = 0;
+            return;
+        }
+        Arrays.fill( maxChange, 0 );
+        double[] data = density.data;
+        for( int n = 0; n < density.getVoxelsCount(); n++ )
+        {
+            int index = n * density.voxelStride;
+            for( int q = 0; q < substrates; q++, index += density.substrateStride )
+                maxChange[q] = Math.max( maxChange[q], Math.abs( data[index] - snapshot[index] ) );
+        }
+
+        boolean steady = true;
+        for( double change : maxChange )
+            steady &= change < tolerance;
+        stableSteps = steady ? stableSteps + 1 : 0;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "Quasi-steady state: solved " + solvedCount + ", skipped " + skippedCount + ( isSteady() ? " (steady)" : "" );
+    }
+}
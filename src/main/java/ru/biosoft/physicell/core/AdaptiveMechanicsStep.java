@@ -0,0 +1,158 @@
+package ru.biosoft.physicell.core;
+
+/**
+ * Adaptive mechanics time step.<br>
+ * Mechanics is performed every k base mechanics steps, where k (up to maxMultiple) is the largest multiple
+ * keeping max |velocity| * dt below given fraction of minimum cell radius for velocities of the last step.
+ * If velocities evaluated at a step violate the bound for the elapsed time, the step is subcycled (at most maxSubsteps substeps):
+ * contact functions, custom rules, velocities and positions are updated at each substep (see CellContainer.setAdaptiveMechanicsStep).
+ */
+public class AdaptiveMechanicsStep
+{
+    private double fraction;
+    private int maxMultiple;
+    private int maxSubsteps;
+    private boolean log = false;
+
+    private int multiple = 1;
+    private double maxSpeed;
+    private double minRadius;
+
+    private long stepsCount;
+    private long subcycledCount;
+    private long substepsCount;
+
+    /**
+     * @param fraction max allowed displacement of a cell per step relative to minimum cell radius
+     * @param maxMultiple max mechanics step as a multiple of base mechanics dt
+     * @param maxSubsteps max number of substeps when step is subcycled
+     */
+    public AdaptiveMechanicsStep(double fraction, int maxMultiple, int maxSubsteps)
+    {
+        this.fraction = fraction;
+        this.maxMultiple = maxMultiple;
+        this.maxSubsteps = maxSubsteps;
+    }
+
+    public double getFraction()
+    {
+        return fraction;
+    }
+
+    public void setFraction(double fraction)
+    {
+        this.fraction = fraction;
+    }
+
+    public int getMaxMultiple()
+    {
+        return maxMultiple;
+    }
+
+    public void setMaxMultiple(int maxMultiple)
+    {
+        this.maxMultiple = maxMultiple;
+    }
+
+    public int getMaxSubsteps()
+    {
+        return maxSubsteps;
+    }
+
+    public void setMaxSubsteps(int maxSubsteps)
+    {
+        this.maxSubsteps = maxSubsteps;
+    }
+
+    /**
+     * If true, changes of chosen step and subcycled steps are printed, false by default
+     */
+    public void setLog(boolean log)
+    {
+        this.log = log;
+    }
+
+    /**
+     * Current mechanics step as a multiple of base mechanics dt
+     */
+    public int getMultiple()
+    {
+        return multiple;
+    }
+
+    public long getStepsCount()
+    {
+        return stepsCount;
+    }
+
+    public long getSubcycledCount()
+    {
+        return subcycledCount;
+    }
+
+    public long getSubstepsCount()
+    {
+        return substepsCount;
+    }
+
+    /**
+     * Max cell speed and min cell radius measured at the last step
+     */
+    public double getMaxSpeed()
+    {
+        return maxSpeed;
+    }
+
+    public double getMinRadius()
+    {
+        return minRadius;
+    }
+
+    /**
+     * Number of substeps for mechanics step of length dt with velocities already evaluated
+     */
+    int substeps(double maxSpeed, double minRadius, double dt, double t)
+    {
+        this.maxSpeed = maxSpeed;
+        this.minRadius = minRadius;
+        stepsCount++;
+        double bound = fraction * minRadius;
+        if( maxSpeed * dt <= bound )
+            return 1;
+        int substeps = (int)Math.min( maxSubsteps, Math.ceil( maxSpeed * dt / bound ) );
+        subcycledCount++;
+        substepsCount += substeps;
+        if( log )
+            System.out.println( "Mechanics step at " + t + " is subcycled: " + substeps + " substeps of " + dt / substeps );
+        return substeps;
+    }
+
+    /**
+     * Chooses multiple of base mechanics dt for the next step from the speed measured at the current step
+     */
+    void chooseNext(double baseDt, double t)
+    {
+        int next = maxSpeed > 0 ? (int)Math.min( maxMultiple, Math.floor( fraction * minRadius / ( maxSpeed * baseDt ) ) ) : maxMultiple;
+        next = Math.max( 1, next );
+        if( log && next != multiple )
+            System.out.println( "Mechanics step at " + t + " changed to " + next * baseDt );
+        multiple = next;
+    }
+
+    public void reset()
+    {
+        multiple = 1;
+        maxSpeed = 0;
+        minRadius = 0;
+        stepsCount = 0;
+        subcycledCount = 0;
+        substepsCount = 0;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "Adaptive mechanics step: x" + multiple + ", steps " + stepsCount + ", subcycled " + subcycledCount + " (" + substepsCount
+                + " substeps)";
+    }
+}
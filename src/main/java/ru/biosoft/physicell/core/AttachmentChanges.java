@@ -0,0 +1,75 @@
+package ru.biosoft.physicell.core;
+
+import java.util.Arrays;
+
+/**
+ * Deferred changes of spring attachments.<br>
+ * Detachments and attachments are proposed while attachments of all cells are examined and applied after the pass,
+ * so attachment lists are never modified while they are iterated. Detachments are applied first,
+ * then attachments in order of proposal while both cells are below their maximum number of attachments.
+ */
+public class AttachmentChanges
+{
+    private Cell[] detachFirst = new Cell[16];
+    private Cell[] detachSecond = new Cell[16];
+    private int detachCount;
+
+    private Cell[] attachFirst = new Cell[16];
+    private Cell[] attachSecond = new Cell[16];
+    private int attachCount;
+
+    public void detach(Cell pCell_1, Cell pCell_2)
+    {
+        if( detachCount == detachFirst.length )
+        {
+            detachFirst = Arrays.copyOf( detachFirst, detachCount * 2 );
+            detachSecond = Arrays.copyOf( detachSecond, detachCount * 2 );
+        }
+        detachFirst[detachCount] = pCell_1;
+        detachSecond[detachCount++] = pCell_2;
+    }
+
+    public void attach(Cell pCell_1, Cell pCell_2)
+    {
+        if( attachCount == attachFirst.length )
+        {
+            attachFirst = Arrays.copyOf( attachFirst, attachCount * 2 );
+            attachSecond = Arrays.copyOf( attachSecond, attachCount * 2 );
+        }
+        attachFirst[attachCount] = pCell_1;
+        attachSecond[attachCount++] = pCell_2;
+    }
+
+    public boolean isEmpty()
+    {
+        return detachCount == 0 && attachCount == 0;
+    }
+
+    /**
+     * Applies all proposed changes and clears them
+     */
+    public void apply()
+    {
+        for( int i = 0; i < detachCount; i++ )
+            Cell.detach_cells_as_spring( detachFirst[i], detachSecond[i] );
+        for( int i = 0; i < attachCount; i++ )
+        {
+            Cell pCell_1 = attachFirst[i];
+            Cell pCell_2 = attachSecond[i];
+            if( pCell_1.state.spring_attachments.size() < pCell_1.phenotype.mechanics.maximum_number_of_attachments
+                    && pCell_2.state.spring_attachments.size() < pCell_2.phenotype.mechanics.maximum_number_of_attachments )
+                Cell.attach_cells_as_spring( pCell_1, pCell_2 );
+        }
+        clear();
+    }
+
+    public void clear()
+    {
+        Arrays.fill( detachFirst, 0, detachCount, null );
+        Arrays.fill( detachSecond, 0, detachCount, null );
+        Arrays.fill( attachFirst, 0, attachCount, null );
+        Arrays.fill( attachSecond, 0, attachCount, null );
+        detachCount = 0;
+        attachCount = 0;
+    }
+}
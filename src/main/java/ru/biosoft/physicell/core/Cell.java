@@ -1,6 +1,7 @@
 package ru.biosoft.physicell.core;
 
 import ru.biosoft.physicell.biofvm.BasicAgent;
+import ru.biosoft.physicell.biofvm.CartesianMesh;
 import ru.biosoft.physicell.biofvm.Microenvironment;
 import ru.biosoft.physicell.biofvm.VectorUtil;
 import ru.biosoft.physicell.core.CellFunctions.instantiate_cell;
@@ -90,6 +91,22 @@ public class Cell extends BasicAgent
     boolean isMovable;
     public double[] displacement; // this should be moved to state, or made private
 
+    // length of the previous position update, previous_velocity was integrated with it
+    double previous_dt;
+
+    // counters of counter-based random draws, see PhysiCellRandom
+    long random_step = -1;
+    int[] random_counters;
+
+    /**
+     * Hash is ID, so that iteration order of cell sets (e.g. neighbors) does not depend on identity hash codes
+     */
+    @Override
+    public int hashCode()
+    {
+        return ID;
+    }
+
     public Cell(CellDefinition cd, Microenvironment m)
     {
         super( m );
@@ -115,6 +132,7 @@ public class Cell extends BasicAgent
         assign_orientation();
         container = null;
         setTotalVolume( phenotype.volume.total );
+        state.spring_attachments.ensureCapacity( phenotype.mechanics.maximum_number_of_attachments );
     }
 
     @Override
@@ -125,6 +143,12 @@ public class Cell extends BasicAgent
         return container;
     }
 
+    boolean is_event_driven()
+    {
+        CellContainer container = get_container();
+        return container != null && container.eventDrivenTransitions;
+    }
+
     void flag_for_division()
     {
         get_container().flag_cell_for_division( this );
@@ -201,8 +225,8 @@ public class Cell extends BasicAgent
         //        else
         //        {
         //assign a random unit vector
-        double theta = Math.random() * 6.28318530717959; //rand*2*pi
-        double z = 2 * Math.random() - 1;
+        double theta = PhysiCellUtilities.UniformRandom( this, PhysiCellRandom.DIVISION ) * 6.28318530717959; //rand*2*pi
+        double z = 2 * PhysiCellUtilities.UniformRandom( this, PhysiCellRandom.DIVISION ) - 1;
         double temp = Math.sqrt( 1 - z * z );
         state.orientation[0] = temp * Math.cos( theta );
         state.orientation[1] = temp * Math.sin( theta );
@@ -224,7 +248,6 @@ public class Cell extends BasicAgent
     public static Cell createCell(instantiate_cell custom_instantiate, CellDefinition cd, Microenvironment m, double[] position)
     {
         Cell pNew = custom_instantiate == null ? new Cell( cd, m ) : custom_instantiate.execute();
-        pNew.index = m.getAgentsCount();
         pNew.registerMicroenvironment( m );
         // All the phenotype and other data structures are already set by virtue of the default Cell constructor. 
         pNew.setTotalVolume( pNew.phenotype.volume.total );
@@ -245,8 +268,11 @@ public class Cell extends BasicAgent
         // Basic_Agent::update_position(dt);
 
         // use Adams-Bashforth 
-        double d1 = 1.5 * dt;
-        double d2 = -0.5 * dt;
+        // with variable step coefficients if step length was changed (adaptive mechanics step or substeps)
+        double ratio = previous_dt > 0 && Math.abs( dt - previous_dt ) > 1e-9 * dt ? dt / previous_dt : 1.0;
+        double d1 = ( 1 + 0.5 * ratio ) * dt;
+        double d2 = -0.5 * ratio * dt;
+        previous_dt = dt;
         //        boolean constants_defined = false; 
         //        if( constants_defined == false )
         //        {
@@ -322,6 +348,8 @@ public class Cell extends BasicAgent
         //        // shrink the vector
         //        (*all_cells).pop_back();    
 
+        cell.get_container().wake_neighbors( cell );
+
         // deregister agent in from the agent container
         cell.getMicroenvironment().removeAgent( cell );
         cell.get_container().remove_agent( cell );
@@ -335,6 +363,9 @@ public class Cell extends BasicAgent
         // phenotype.flagged_for_division = false; 
         // phenotype.flagged_for_removal = false; 
 
+        // settled neighbors should make room for daughter cell
+        get_container().wake_neighbors( this );
+
         // make sure ot remove adhesions 
         remove_all_attached_cells();
         remove_all_spring_attachments();
@@ -388,7 +419,7 @@ public class Cell extends BasicAgent
         rand_vec *= radius; // multiply direction times the displacement 
         */
 
-        double[] rand_vec = PhysiCellUtilities.UniformOnUnitSphere();//cell_division_orientation();
+        double[] rand_vec = PhysiCellUtilities.UniformOnUnitSphere( this, PhysiCellRandom.DIVISION );//cell_division_orientation();
 
         double multiplier = phenotype.geometry.polarity
                 * ( rand_vec[0] * state.orientation[0] + rand_vec[1] * state.orientation[1] + rand_vec[2] * state.orientation[2] );
@@ -454,8 +485,8 @@ public class Cell extends BasicAgent
         //                state.attached_cells[i]->detach_cell( this ); 
         //            }
 
-        for( Cell cell : state.attached_cells )
-            cell.detach_cell( this );
+        for( int i = state.attached_cells.size() - 1; i >= 0; i-- )
+            state.attached_cells.get( i ).detach_cell( this );
         state.attached_cells.clear(); // clear my list 
     }
 
@@ -466,8 +497,8 @@ public class Cell extends BasicAgent
         //            {
         //                state.spring_attachments[i].detach_cell_as_spring( this );
         //            }
-        for( Cell cell : state.spring_attachments )
-            cell.detach_cell_as_spring( this );
+        for( int i = state.spring_attachments.size() - 1; i >= 0; i-- )
+            state.spring_attachments.get( i ).detach_cell_as_spring( this );
         state.spring_attachments.clear(); // clear my list 
     }
 
@@ -805,7 +836,7 @@ public class Cell extends BasicAgent
             return;
         }
 
-        if( PhysiCellUtilities.UniformRandom() < dt_ / phenotype.motility.persistence_time || phenotype.motility.persistence_time < dt_ )
+        if( PhysiCellUtilities.UniformRandom( this, PhysiCellRandom.MOTILITY ) < dt_ / phenotype.motility.persistence_time || phenotype.motility.persistence_time < dt_ )
         {
             /*
             // choose a uniformly random unit vector 
@@ -832,11 +863,11 @@ public class Cell extends BasicAgent
             double[] randvec;
             if( phenotype.motility.restrict_to_2D == true )
             {
-                randvec = PhysiCellUtilities.UniformOnUnitCircle();
+                randvec = PhysiCellUtilities.UniformOnUnitCircle( this, PhysiCellRandom.MOTILITY );
             }
             else
             {
-                randvec = PhysiCellUtilities.UniformOnUnitSphere();
+                randvec = PhysiCellUtilities.UniformOnUnitSphere( this, PhysiCellRandom.MOTILITY );
             }
 
             // if the update_bias_vector function is set, use it  
@@ -861,6 +892,20 @@ public class Cell extends BasicAgent
         }
     }
 
+    /**
+     * Same test as is_neighbor_voxel with voxel centers but uses precomputed stencil tables of mechanics mesh and does not allocate memory
+     * @param voxel_index mechanics voxel of the cell
+     * @param n position of the neighbor voxel in Moore neighborhood of voxel_index
+     */
+    public static boolean is_neighbor_voxel(Cell pCell, int voxel_index, int n)
+    {
+        CartesianMesh mesh = pCell.get_container().underlying_mesh;
+        double max_interactive_distance = pCell.phenotype.mechanics.relative_maximum_adhesion_distance * pCell.phenotype.geometry.radius
+                + pCell.get_container().max_cell_interactive_distance_in_voxel[mesh.moore_connected_voxel_indices[voxel_index][n]];
+        return mesh.neighbor_boundary_distance_squared( pCell.position, voxel_index, n ) <= max_interactive_distance
+                * max_interactive_distance;
+    }
+
     public static boolean is_neighbor_voxel(Cell pCell, double[] my_voxel_center, double[] other_voxel_center, int other_voxel_index)
     {
         double max_interactive_distance = pCell.phenotype.mechanics.relative_maximum_adhesion_distance * pCell.phenotype.geometry.radius
@@ -927,9 +972,20 @@ public class Cell extends BasicAgent
         return true;
     }
 
-    double[] nearest_density_vector()
+    /**
+     * Returns copy of densities in the voxel of the cell
+     */
+    double[] nearest_density_vector_copy()
+    {
+        return getMicroenvironment().nearest_density_vector_copy( this.currentVoxelIndex );//current_voxel_index );
+    }
+
+    /**
+     * Density of given substrate in the current voxel, does not copy density vector
+     */
+    double nearest_density(int substrate)
     {
-        return getMicroenvironment().nearest_density_vector( this.currentVoxelIndex );//current_voxel_index );
+        return getMicroenvironment().getDensity( currentVoxelIndex, substrate );
     }
 
     void ingest_cell(Cell pCell_to_eat)
@@ -1219,6 +1275,8 @@ public class Cell extends BasicAgent
         // displacement.resize(3,0.0); // state? 
         assign_orientation();
         setTotalVolume( phenotype.volume.total );
+        // spring attachments are limited by mechanics, so their storage is allocated once
+        state.spring_attachments.ensureCapacity( phenotype.mechanics.maximum_number_of_attachments );
     }
 
     public void advance_bundled_phenotype_functions(double dt_)
@@ -1275,7 +1333,7 @@ public class Cell extends BasicAgent
         phenotype.geometry.update( this, phenotype, dt_ );
 
         // check for new death events 
-        if( phenotype.death.check_for_death( dt_ ) )
+        if( phenotype.death.check_for_death( this, dt_ ) )
         {
             // if so, change the cycle model to the current death model 
             phenotype.cycle = phenotype.death.current_model();
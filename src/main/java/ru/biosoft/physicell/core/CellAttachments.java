@@ -0,0 +1,138 @@
+package ru.biosoft.physicell.core;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Compact array-backed set of attached cells (adjacency list of a cell in the attachment graph).<br>
+ * Number of attachments is small, so contains is a linear scan. Removal moves the last cell into the freed position,
+ * so removing cell at position i while iterating positions from the last to the first is safe.
+ */
+public class CellAttachments extends AbstractSet<Cell>
+{
+    private static final Cell[] EMPTY = new Cell[0];
+
+    private Cell[] cells = EMPTY;
+    private int size;
+
+    @Override
+    public int size()
+    {
+        return size;
+    }
+
+    public Cell get(int i)
+    {
+        if( i >= size )
+            throw new IndexOutOfBoundsException( "Index: " + i + ", size: " + size );
+        return cells[i];
+    }
+
+    public int indexOf(Cell cell)
+    {
+        for( int i = 0; i < size; i++ )
+        {
+            if( cells[i] == cell )
+                return i;
+        }
+        return -1;
+    }
+
+    @Override
+    public boolean contains(Object o)
+    {
+        return o instanceof Cell && indexOf( (Cell)o ) >= 0;
+    }
+
+    @Override
+    public boolean add(Cell cell)
+    {
+        if( indexOf( cell ) >= 0 )
+            return false;
+        if( size == cells.length )
+            cells = Arrays.copyOf( cells, Math.max( 4, size * 2 ) );
+        cells[size++] = cell;
+        return true;
+    }
+
+    @Override
+    public boolean remove(Object o)
+    {
+        int i = o instanceof Cell ? indexOf( (Cell)o ) : -1;
+        if( i < 0 )
+            return false;
+        removeAt( i );
+        return true;
+    }
+
+    /**
+     * Removes cell at position i, the last cell takes its place
+     */
+    public void removeAt(int i)
+    {
+        int last = --size;
+        cells[i] = cells[last];
+        cells[last] = null;
+    }
+
+    @Override
+    public void clear()
+    {
+        Arrays.fill( cells, 0, size, null );
+        size = 0;
+    }
+
+    /**
+     * Preallocates storage, e.g. for maximum_number_of_attachments cells
+     */
+    public void ensureCapacity(int capacity)
+    {
+        if( cells.length < capacity )
+            cells = Arrays.copyOf( cells, capacity );
+    }
+
+    /**
+     * @return copy of attached cells, can be used to iterate while attachments are modified
+     */
+    public Cell[] toCellArray()
+    {
+        return Arrays.copyOf( cells, size );
+    }
+
+    @Override
+    public Iterator<Cell> iterator()
+    {
+        return new Iterator<Cell>()
+        {
+            int next = 0;
+            int last = -1;
+
+            @Override
+            public boolean hasNext()
+            {
+                return next < size;
+            }
+
+            @Override
+            public Cell next()
+            {
+                if( next >= size )
+                    throw new NoSuchElementException();
+                last = next++;
+                return cells[last];
+            }
+
+            @Override
+            public void remove()
+            {
+                if( last < 0 )
+                    throw new IllegalStateException();
+                removeAt( last );
+                next = last;
+                last = -1;
+            }
+        };
+    }
+}
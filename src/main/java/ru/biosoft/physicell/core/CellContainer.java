@@ -1,14 +1,19 @@
 package ru.biosoft.physicell.core;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 
 import ru.biosoft.physicell.biofvm.AgentContainer;
+import ru.biosoft.physicell.biofvm.AgentRegistry;
 import ru.biosoft.physicell.biofvm.BasicAgent;
 import ru.biosoft.physicell.biofvm.CartesianMesh;
 import ru.biosoft.physicell.biofvm.Microenvironment;
+import ru.biosoft.physicell.biofvm.ParallelUtil;
+import ru.biosoft.physicell.biofvm.VectorUtil;
 
 /*
 ###############################################################################
@@ -91,8 +96,20 @@ public class CellContainer extends AgentContainer
     double last_diffusion_time = 0.0;
     double last_cell_cycle_time = 0.0;
     double last_mechanics_time = 0.0;
-
-    List<Set<Cell>> agent_grid;
+    long step = -1;
+
+    CellGrid agent_grid = new CellGrid();
+    CellKinematics kinematics = new CellKinematics();
+    boolean symmetricMechanics = false;
+    boolean eventDrivenTransitions = false;
+    VerletLists verletLists;
+    AdaptiveMechanicsStep adaptiveStep;
+    SleepingCells sleepingCells;
+    AttachmentChanges attachmentChanges = new AttachmentChanges();
+    CellInteractionEvents interactionEvents = new CellInteractionEvents();
+    private int[][] voxel_colors;
+    private int voxel_colors_size = -1;
+    Microenvironment microenvironment;
     List<Set<Cell>> agents_in_outer_voxels;
 
     public CellContainer()
@@ -116,9 +133,7 @@ public class CellContainer extends AgentContainer
         cells_ready_to_die = new HashSet<>();
         underlying_mesh.resize( x_start, x_end, y_start, y_end, z_start, z_end, dx, dy, dz );
         max_cell_interactive_distance_in_voxel = new double[underlying_mesh.voxels.length];
-        agent_grid = new ArrayList<>();//[underlying_mesh.voxels.length];
-        for( int i = 0; i < underlying_mesh.voxels.length; i++ )
-            agent_grid.add( new HashSet<Cell>() );
+        agent_grid.invalidate();
         max_cell_interactive_distance_in_voxel = new double[underlying_mesh.voxels.length];
         agents_in_outer_voxels = new ArrayList<>( 6 );
         for( int i = 0; i < 6; i++ )
@@ -132,6 +147,7 @@ public class CellContainer extends AgentContainer
 
     public void updateAllCells(Microenvironment m, double t, double phenotype_dt_, double mechanics_dt_, double diffusion_dt_)
     {
+        step++;
         // secretions and uptakes. Syncing with BioFVM is automated. 
         //            #pragma omp parallel for 
         Set<BasicAgent> agents = m.getAgents();
@@ -140,9 +156,12 @@ public class CellContainer extends AgentContainer
             Cell cell = (Cell)agent;
             if( !cell.isOutOfDomain )
             {
-                cell.phenotype.secretion.advance( cell, cell.phenotype, diffusion_dt_ );
+                cell.phenotype.secretion.sync_to_cell( cell, cell.phenotype, diffusion_dt_ );
             }
         }
+        // cells out of domain are inactive and skipped, voxels are processed in parallel if microenvironment has pool
+        // in quasi-steady-state mode the stage is skipped together with diffusion
+        m.simulate_cell_sources_and_sinks( agents, diffusion_dt_ );
 
         //if it is the time for running cell cycle, do it!
         double time_since_last_cycle = t - last_cell_cycle_time;
@@ -173,6 +192,7 @@ public class CellContainer extends AgentContainer
         {
             // Reset the max_radius in each voxel. It will be filled in set_total_volume
             // It might be better if we calculate it before mechanics each time 
+            // (it is recomputed before velocity update, see update_max_cell_interactive_distance)
             // std::fill(max_cell_interactive_distance_in_voxel.begin(), max_cell_interactive_distance_in_voxel.end(), 0.0);
 
             if( !initialzed )
@@ -209,8 +229,10 @@ public class CellContainer extends AgentContainer
 
         double time_since_last_mechanics = t - last_mechanics_time;
 
+        // with adaptive step mechanics is performed every few base steps
+        double mechanics_step = adaptiveStep == null ? mechanics_dt_ : adaptiveStep.getMultiple() * mechanics_dt_;
         // if( time_since_last_mechanics>= mechanics_dt || !initialzed)
-        if( Math.abs( time_since_last_mechanics - mechanics_dt_ ) < mechanics_dt_tolerance || !initialzed )
+        if( Math.abs( time_since_last_mechanics - mechanics_step ) < mechanics_dt_tolerance || !initialzed )
         {
             if( !initialzed )
             {
@@ -226,75 +248,36 @@ public class CellContainer extends AgentContainer
             //            }
             //TOD: commented by now
             // end of new in Feb 2018 
-            // perform interactions -- new in June 2020 
-            //                #pragma omp parallel for 
-            for( BasicAgent agent : agents )
-            {
-                Cell cell = (Cell)agent;
-                if( cell.functions.contact_function != null && !cell.isOutOfDomain )
-                {
-                    StandardModels.evaluate_interactions( cell, cell.phenotype, time_since_last_mechanics );
-                }
-            }
-            // perform custom computations 
-            //                #pragma omp parallel for 
-            for( BasicAgent agent : agents )
-            {
-                Cell cell = (Cell)agent;
-                if( cell.functions.custom_cell_rule != null && !cell.isOutOfDomain )
-                {
-                    cell.functions.custom_cell_rule.execute( cell, cell.phenotype, time_since_last_mechanics );
-                }
-            }
+            evaluate_contacts_and_rules( agents, time_since_last_mechanics );
             // update velocities 
-            //                #pragma omp parallel for 
-            for( BasicAgent agent : agents )
-            {
-                Cell cell = (Cell)agent;
-                if( cell.functions.updateVelocity != null && !cell.isOutOfDomain && cell.isMovable )
-                {
-                    cell.functions.updateVelocity.execute( cell, cell.phenotype, time_since_last_mechanics );
-                }
-            }
+            if( sleepingCells != null )
+                sleepingCells.wakeChanged( agents );
+            update_velocities( m, time_since_last_mechanics );
             // new March 2023: 
             // dynamic spring attachments, followed by built-in springs
             if( true ) //TODO: use settings PhysiCellSettings.disable_automated_spring_adhesions == false )
             {
-                //                    #pragma omp parallel for 
+                // changes are applied after all cells are processed, attachment lists are not modified while iterated
                 for( BasicAgent agent : agents )
                 {
                     Cell cell = (Cell)agent;
-                    StandardModels.dynamic_spring_attachments( cell, cell.phenotype, time_since_last_mechanics );
-                }
-                //                    #pragma omp parallel for 
-                for( BasicAgent agent : agents )
-                {
-                    Cell cell = (Cell)agent;
-                    if( cell.isMovable )
-                    {
-                        for( Cell pC1 : cell.state.spring_attachments )
-                        {
-                            StandardModels.standard_elastic_contact_function( cell, cell.phenotype, pC1, pC1.phenotype,
-                                    time_since_last_mechanics );
-                        }
-                        //                            for( int j=0; j < pC.state.spring_attachments.size(); j++ )
-                        //                            {
-                        //                                Cell pC1 = pC.state.spring_attachments[j]; 
-                        //                                // standard_elastic_contact_function_confluent_rest_length(pC,pC.phenotype,pC1,pC1.phenotype,time_since_last_mechanics);  
-                        //                                standard_elastic_contact_function(pC,pC.phenotype,pC1,pC1.phenotype,time_since_last_mechanics);  
-                        //                            }
-                    }
+                    StandardModels.dynamic_spring_attachments( cell, cell.phenotype, time_since_last_mechanics, attachmentChanges );
                 }
+                attachmentChanges.apply();
+                add_spring_forces( m, time_since_last_mechanics );
             }
 
             // new March 2022: 
             // run standard interactions (phagocytosis, attack, fusion) here 
-            //                #pragma omp parallel for 
-            for( BasicAgent agent : agents )
-            {
-                Cell cell = (Cell)agent;
-                StandardModels.standard_cell_cell_interactions( cell, cell.phenotype, time_since_last_mechanics );
-            }
+            // interactions are proposed in parallel and applied in order of predator ID, so two predators can not consume the same cell
+            AgentRegistry<BasicAgent> registry = m.getAgents();
+            double interactions_dt = time_since_last_mechanics;
+            interactionEvents.begin( registry.size() );
+            ParallelUtil.forEach( m.getPool(), registry.size(), n -> {
+                Cell cell = (Cell)registry.get( n );
+                StandardModels.standard_cell_cell_interactions( cell, cell.phenotype, interactions_dt, interactionEvents );
+            } );
+            interactionEvents.commit( registry, time_since_last_mechanics );
             // super-critical to performance! clear the "dummy" cells from phagocytosis / fusion
             // otherwise, comptuational cost increases at polynomial rate VERY fast, as O(10,000) 
             // dummy cells of size zero are left ot interact mechanically, etc. 
@@ -312,38 +295,229 @@ public class CellContainer extends AgentContainer
                     cell.die();
                 cells_ready_to_die.clear();
             }
+            if( sleepingCells != null )
+                sleepingCells.update( agents );
             // update positions         
-            //                #pragma omp parallel for 
-            for( BasicAgent agent : agents )
+            if( adaptiveStep == null )
             {
-                Cell cell = (Cell)agent;
-                if( cell.isOutOfDomain == false && cell.isMovable )
+                update_positions( agents, time_since_last_mechanics );
+            }
+            else
+            {
+                // velocities which are too large for elapsed time are integrated in substeps,
+                // contact functions, custom rules and velocities (with motility and springs) are evaluated at each substep
+                int substeps = adaptiveStep.substeps( get_max_speed( agents ), get_min_radius( agents ), time_since_last_mechanics, t );
+                double substep = time_since_last_mechanics / substeps;
+                update_positions( agents, substep );
+                for( int i = 1; i < substeps; i++ )
                 {
-                    cell.update_position( time_since_last_mechanics );
+                    evaluate_contacts_and_rules( agents, substep );
+                    update_velocities( m, substep );
+                    add_spring_forces( m, substep );
+                    update_positions( agents, substep );
                 }
+                adaptiveStep.chooseNext( mechanics_dt_, t );
             }
+            last_mechanics_time = t;
+        }
 
-            // When somebody reviews this code, let's add proper braces for clarity!!! 
+        initialzed = true;
+        return;
+    }
 
-            // Update cell indices in the container
-            for( BasicAgent agent : agents )
+    /**
+     * Contact functions and custom rules of cells
+     */
+    private void evaluate_contacts_and_rules(Set<BasicAgent> agents, double dt)
+    {
+        // perform interactions -- new in June 2020 
+        //                #pragma omp parallel for 
+        for( BasicAgent agent : agents )
+        {
+            Cell cell = (Cell)agent;
+            // sleeping cells are skipped for force evaluation
+            if( cell.functions.contact_function != null && !cell.isOutOfDomain && !cell.state.asleep )
             {
-                Cell cell = (Cell)agent;
-                if( !cell.isOutOfDomain && cell.isMovable )
-                    cell.update_voxel_in_container();
+                StandardModels.evaluate_interactions( cell, cell.phenotype, dt );
+            }
+        }
+        // perform custom computations 
+        //                #pragma omp parallel for 
+        for( BasicAgent agent : agents )
+        {
+            Cell cell = (Cell)agent;
+            if( cell.functions.custom_cell_rule != null && !cell.isOutOfDomain )
+            {
+                cell.functions.custom_cell_rule.execute( cell, cell.phenotype, dt );
             }
-            last_mechanics_time = t;
         }
+    }
 
-        initialzed = true;
-        return;
+    /**
+     * Velocity update stage: cell grid and kinematics are updated, pair forces are computed
+     */
+    void update_velocities(Microenvironment m, double dt)
+    {
+        Set<BasicAgent> agents = m.getAgents();
+        // grid is rebuilt here (after custom rules which may move cells) so velocity updates only read it
+        // cell data needed for pair forces is copied to arrays for this stage
+        kinematics.load( get_grid(), m.getPool() );
+        update_max_cell_interactive_distance( m.getPool() );
+        if( symmetricMechanics )
+            compute_symmetric_pair_forces( m.getPool() );
+        else if( verletLists != null )
+            verletLists.update( kinematics, get_grid(), underlying_mesh, m.getPool() );
+        //                #pragma omp parallel for 
+        for( BasicAgent agent : agents )
+        {
+            Cell cell = (Cell)agent;
+            if( cell.functions.updateVelocity != null && !cell.isOutOfDomain && cell.isMovable && !cell.state.asleep )
+            {
+                cell.functions.updateVelocity.execute( cell, cell.phenotype, dt );
+            }
+        }
+        kinematics.unload();
+        if( verletLists != null )
+            verletLists.invalidate();
+    }
+
+    /**
+     * Forces of spring attachments, each cell accumulates forces of its own attachments only, so cells are processed in parallel
+     */
+    void add_spring_forces(Microenvironment m, double dt)
+    {
+        AgentRegistry<BasicAgent> agents = m.getAgents();
+        ParallelUtil.forEach( m.getPool(), agents.size(), n -> {
+            Cell cell = (Cell)agents.get( n );
+            if( cell.isMovable && !cell.state.asleep )
+            {
+                CellAttachments attachments = cell.state.spring_attachments;
+                for( int j = 0; j < attachments.size(); j++ )
+                {
+                    Cell pC1 = attachments.get( j );
+                    StandardModels.standard_elastic_contact_function( cell, cell.phenotype, pC1, pC1.phenotype, dt );
+                }
+                //                            for( int j=0; j < pC.state.spring_attachments.size(); j++ )
+                //                            {
+                //                                Cell pC1 = pC.state.spring_attachments[j]; 
+                //                                // standard_elastic_contact_function_confluent_rest_length(pC,pC.phenotype,pC1,pC1.phenotype,time_since_last_mechanics);  
+                //                                standard_elastic_contact_function(pC,pC.phenotype,pC1,pC1.phenotype,time_since_last_mechanics);  
+                //                            }
+            }
+        } );
+    }
+
+    void update_positions(Set<BasicAgent> agents, double dt)
+    {
+        //                #pragma omp parallel for 
+        for( BasicAgent agent : agents )
+        {
+            Cell cell = (Cell)agent;
+            if( cell.isOutOfDomain == false && cell.isMovable && !cell.state.asleep )
+            {
+                cell.update_position( dt );
+            }
+            else if( cell.state.asleep )
+            {
+                // velocity added to sleeping cell (e.g. by custom rule) is dropped, as it is not integrated
+                cell.velocity[0] = 0;
+                cell.velocity[1] = 0;
+                cell.velocity[2] = 0;
+            }
+        }
+
+        // When somebody reviews this code, let's add proper braces for clarity!!! 
+
+        // Update cell indices in the container
+        for( BasicAgent agent : agents )
+        {
+            Cell cell = (Cell)agent;
+            if( !cell.isOutOfDomain && cell.isMovable && !cell.state.asleep )
+                cell.update_voxel_in_container();
+        }
+    }
+
+    private static double get_max_speed(Set<BasicAgent> agents)
+    {
+        double max = 0;
+        for( BasicAgent agent : agents )
+        {
+            Cell cell = (Cell)agent;
+            if( !cell.isOutOfDomain && cell.isMovable && !cell.state.asleep )
+                max = Math.max( max, VectorUtil.norm( cell.velocity ) );
+        }
+        return max;
+    }
+
+    private static double get_min_radius(Set<BasicAgent> agents)
+    {
+        double min = Double.POSITIVE_INFINITY;
+        for( BasicAgent agent : agents )
+        {
+            Cell cell = (Cell)agent;
+            if( !cell.isOutOfDomain && cell.isMovable && cell.phenotype.geometry.radius > 0 )
+                min = Math.min( min, cell.phenotype.geometry.radius );
+        }
+        return min;
+    }
+
+    /**
+     * Index of the current step (-1 before the first one), key of counter-based random draws of cells in this container
+     */
+    public long getStep()
+    {
+        return step;
+    }
+
+    /**
+     * Enables sleeping of settled cells, null disables it (all cells are woken)
+     */
+    public void setSleepingCells(SleepingCells sleepingCells)
+    {
+        if( sleepingCells == null && this.sleepingCells != null )
+        {
+            for( BasicAgent agent : microenvironment.getAgents() )
+                this.sleepingCells.wake( (Cell)agent );
+        }
+        this.sleepingCells = sleepingCells;
+    }
+
+    public SleepingCells getSleepingCells()
+    {
+        return sleepingCells;
+    }
+
+    /**
+     * Wakes the cell and its neighbors (when it divides or dies)
+     */
+    void wake_neighbors(Cell cell)
+    {
+        if( sleepingCells == null )
+            return;
+        sleepingCells.wake( cell );
+        sleepingCells.wakeNeighbors( cell );
+    }
+
+    /**
+     * Sets adaptive mechanics step, null means that mechanics is performed with fixed mechanics dt.<br>
+     * When step is subcycled, contact functions, custom rules, velocity update (pair forces and motility), spring forces
+     * and position update are repeated for each substep. Dynamic spring attachments and cell-cell interactions
+     * (phagocytosis, attack, fusion) are evaluated once per mechanics step.
+     */
+    public void setAdaptiveMechanicsStep(AdaptiveMechanicsStep adaptiveStep)
+    {
+        this.adaptiveStep = adaptiveStep;
+    }
+
+    public AdaptiveMechanicsStep getAdaptiveMechanicsStep()
+    {
+        return adaptiveStep;
     }
     //
     @Override
     public void register_agent(BasicAgent agent)
     {
-        int index = ( (Cell)agent ).get_current_mechanics_voxel_index();
-        agent_grid.get( index ).add( (Cell)agent );
+        agent_grid.invalidate();
         //        agent_grid[agent.get_current_mechanics_voxel_index()].push_back( agent );
     }
 
@@ -371,7 +545,7 @@ public class CellContainer extends AgentContainer
         {
             return;
         }
-        agent_grid.get( voxel_index ).remove( agent );
+        agent_grid.invalidate();
         //        int delete_index = 0;
         //        while( agent_grid[voxel_index][delete_index] != agent )
         //        {
@@ -389,13 +563,175 @@ public class CellContainer extends AgentContainer
     @Override
     public void add_agent_to_voxel(BasicAgent agent, int voxel_index)
     {
-        agent_grid.get( voxel_index ).add( (Cell)agent );//.push_back( agent );
+        agent_grid.invalidate();//.push_back( agent );
+    }
+
+    /**
+     * Returns mechanics cell list, grid is rebuilt if cells were added, removed or moved to other voxels since last call
+     */
+    public CellGrid get_grid()
+    {
+        if( agent_grid.isOutdated() )
+            agent_grid.rebuild( microenvironment.getAgents(), underlying_mesh.voxels.length );
+        return agent_grid;
+    }
+    /**
+     * Recomputes max_cell_interactive_distance_in_voxel from cells currently in each voxel, voxels are processed in parallel.<br>
+     * Values are only raised between calls (when cells are placed or change volume), so after transient large cells leave a voxel it is pruned again.
+     * Called after kinematics are loaded.
+     */
+    void update_max_cell_interactive_distance(ForkJoinPool pool)
+    {
+        CellGrid grid = get_grid();
+        ParallelUtil.forEach( pool, max_cell_interactive_distance_in_voxel.length, voxel -> {
+            double max = 0.0;
+            for( int i = grid.getStart( voxel ); i < grid.getEnd( voxel ); i++ )
+                max = Math.max( max, kinematics.maxAdhesionDistance[grid.getSorted( i )] );
+            max_cell_interactive_distance_in_voxel[voxel] = max;
+        } );
+    }
+
+    /**
+     * If enabled, pair forces of standard velocity update are computed by container before velocity update stage,
+     * each pair of cells is visited once and equal and opposite contributions are added to both cells.
+     */
+    public void setSymmetricMechanics(boolean symmetricMechanics)
+    {
+        this.symmetricMechanics = symmetricMechanics;
+    }
+
+    public boolean isSymmetricMechanics()
+    {
+        return symmetricMechanics;
+    }
+
+    /**
+     * If enabled, stochastic cycle transitions and death are event-driven: instead of a Bernoulli draw for each link at each step,
+     * each link keeps exponentially distributed threshold of integrated rate and fires when it is exceeded (see CycleModel.advance).
+     */
+    public void setEventDrivenTransitions(boolean eventDrivenTransitions)
+    {
+        this.eventDrivenTransitions = eventDrivenTransitions;
+    }
+
+    public boolean isEventDrivenTransitions()
+    {
+        return eventDrivenTransitions;
+    }
+
+    /**
+     * Enables Verlet neighbor lists for standard velocity update with given skin distance, zero or negative skin disables them.
+     * Lists are not used in symmetric mechanics mode.
+     */
+    public void setVerletSkin(double skin)
+    {
+        if( skin <= 0 )
+            verletLists = null;
+        else if( verletLists == null )
+            verletLists = new VerletLists( skin );
+        else
+            verletLists.setSkin( skin );
+    }
+
+    /**
+     * @return Verlet neighbor lists or null if they are not used, lists provide rebuild statistics
+     */
+    public VerletLists getVerletLists()
+    {
+        return verletLists;
+    }
+
+    /**
+     * Evaluates pair forces visiting each pair once: pairs inside each voxel and pairs with Moore neighbor voxels of larger index (half-stencil).
+     * Voxels of the same color (see get_voxel_colors) do not share neighbors, so they are processed in parallel and results do not depend on number of threads.
+     */
+    void compute_symmetric_pair_forces(ForkJoinPool pool)
+    {
+        CellGrid grid = get_grid();
+        kinematics.beginPairForces();
+        ParallelUtil.forEach( pool, grid.getCellsCount(), i -> {
+            if( kinematics.isActive( i ) )
+                grid.getCell( i ).state.neighbors.clear();
+        } );
+        for( int[] voxels : get_voxel_colors() )
+            ParallelUtil.forEach( pool, voxels.length, n -> add_voxel_pair_forces( grid, voxels[n] ) );
+    }
+
+    private void add_voxel_pair_forces(CellGrid grid, int voxel_index)
+    {
+        int start = grid.getStart( voxel_index );
+        int end = grid.getEnd( voxel_index );
+        if( start == end )
+            return;
+        for( int a = start; a < end; a++ )
+        {
+            int i = grid.getSorted( a );
+            for( int b = a + 1; b < end; b++ )
+                add_pair_forces( grid, i, grid.getSorted( b ) );
+        }
+        int[] neighbor_voxels = underlying_mesh.moore_connected_voxel_indices[voxel_index];
+        for( int n = 0; n < neighbor_voxels.length; n++ )
+        {
+            int neighbor_voxel_index = neighbor_voxels[n];
+            if( neighbor_voxel_index < voxel_index || grid.isEmpty( neighbor_voxel_index ) )
+                continue;
+            for( int a = start; a < end; a++ )
+            {
+                int i = grid.getSorted( a );
+                // any cell interacting with cell i is closer than its interaction distance plus max distance in neighbor voxel
+                if( !Cell.is_neighbor_voxel( grid.getCell( i ), voxel_index, n ) )
+                    continue;
+                for( int b = grid.getStart( neighbor_voxel_index ); b < grid.getEnd( neighbor_voxel_index ); b++ )
+                    add_pair_forces( grid, i, grid.getSorted( b ) );
+            }
+        }
+    }
+
+    private void add_pair_forces(CellGrid grid, int i, int j)
+    {
+        if( !kinematics.addSymmetricPotentials( i, j ) )
+            return;
+        if( kinematics.isActive( i ) )
+            grid.getCell( i ).state.neighbors.add( grid.getCell( j ) );
+        if( kinematics.isActive( j ) )
+            grid.getCell( j ).state.neighbors.add( grid.getCell( i ) );
+    }
+
+    /**
+     * Mechanics voxels split into 27 colors by cartesian indices modulo 3,
+     * Moore neighborhoods of two different voxels of the same color do not intersect.
+     */
+    int[][] get_voxel_colors()
+    {
+        int voxels = underlying_mesh.voxels.length;
+        if( voxel_colors_size == voxels )
+            return voxel_colors;
+        int nx = underlying_mesh.x_coordinates.length;
+        int ny = underlying_mesh.y_coordinates.length;
+        int[] color = new int[voxels];
+        int[] count = new int[27];
+        for( int n = 0; n < voxels; n++ )
+        {
+            int i = n % nx;
+            int j = ( n / nx ) % ny;
+            int k = n / ( nx * ny );
+            color[n] = i % 3 + 3 * ( j % 3 ) + 9 * ( k % 3 );
+            count[color[n]]++;
+        }
+        int[][] result = new int[27][];
+        for( int c = 0; c < 27; c++ )
+            result[c] = new int[count[c]];
+        Arrays.fill( count, 0 );
+        for( int n = 0; n < voxels; n++ )
+            result[color[n]][count[color[n]]++] = n;
+        voxel_colors = result;
+        voxel_colors_size = voxels;
+        return result;
     }
     //
     boolean contain_any_cell(int voxel_index)
     {
-        // Let's replace this with clearer statements. 
-        return agent_grid.get( voxel_index ).size() == 0 ? false : true;
+        return !get_grid().isEmpty( voxel_index );
     }
 
     int find_escaping_face_index(BasicAgent agent)
@@ -457,6 +793,7 @@ public class CellContainer extends AgentContainer
         cellContainer.initialize( m.mesh.boundingBox[0], m.mesh.boundingBox[3], m.mesh.boundingBox[1], m.mesh.boundingBox[4],
                 m.mesh.boundingBox[2], m.mesh.boundingBox[5], mechanicsVoxelSize );
         m.agentContainer = (AgentContainer)cellContainer;
+        cellContainer.microenvironment = m;
         return cellContainer;
     }
 }
@@ -0,0 +1,111 @@
+package ru.biosoft.physicell.core;
+
+import java.util.Arrays;
+
+import ru.biosoft.physicell.biofvm.AgentRegistry;
+import ru.biosoft.physicell.biofvm.BasicAgent;
+
+/**
+ * Mechanics cell list: cells grouped by current mechanics voxel with counting sort.<br>
+ * At rebuild cells are numbered by their position in the agent registry, this number is the cell index in the grid.
+ * Indices of cells in voxel n are sorted[start[n]] ... sorted[start[n + 1] - 1], so neighbors of a voxel are scanned as a contiguous range.
+ * Arrays are reused between rebuilds, so rebuild does not allocate memory after warm up.<br>
+ * Grid is marked outdated by container when cells are added, removed or change mechanics voxel and is rebuilt on demand, i.e. once per mechanics step.
+ */
+public class CellGrid
+{
+    Cell[] cells = new Cell[0];
+    int cellsCount;
+    int[] start = new int[1];
+    int[] sorted = new int[0];
+    private int[] next = new int[0];
+    boolean outdated = true;
+
+    public void rebuild(AgentRegistry<? extends BasicAgent> agents, int voxels)
+    {
+        if( start.length != voxels + 1 )
+        {
+            start = new int[voxels + 1];
+            next = new int[voxels];
+        }
+        else
+            Arrays.fill( start, 0 );
+        int size = agents.size();
+        if( cells.length < size )
+        {
+            cells = new Cell[size];
+            sorted = new int[size];
+        }
+
+        // count cells in each voxel, cells without mechanics voxel are not in the grid
+        for( int i = 0; i < size; i++ )
+        {
+            Cell cell = (Cell)agents.get( i );
+            cells[i] = cell;
+            int voxel = cell.get_current_mechanics_voxel_index();
+            if( voxel >= 0 )
+                start[voxel + 1]++;
+        }
+        for( int n = 0; n < voxels; n++ )
+        {
+            start[n + 1] += start[n];
+            next[n] = start[n];
+        }
+        for( int i = 0; i < size; i++ )
+        {
+            int voxel = cells[i].get_current_mechanics_voxel_index();
+            if( voxel >= 0 )
+                sorted[next[voxel]++] = i;
+        }
+        // clear tail so removed cells are not retained
+        Arrays.fill( cells, size, cells.length, null );
+        cellsCount = size;
+        outdated = false;
+    }
+
+    public void invalidate()
+    {
+        outdated = true;
+    }
+
+    public boolean isOutdated()
+    {
+        return outdated;
+    }
+
+    public int getCellsCount()
+    {
+        return cellsCount;
+    }
+
+    public Cell getCell(int index)
+    {
+        return cells[index];
+    }
+
+    /**
+     * Start of voxel range in sorted cell indices
+     */
+    public int getStart(int voxel)
+    {
+        return start[voxel];
+    }
+
+    /**
+     * End (exclusive) of voxel range in sorted cell indices
+     */
+    public int getEnd(int voxel)
+    {
+        return start[voxel + 1];
+    }
+
+    public int getSorted(int i)
+    {
+        return sorted[i];
+    }
+
+    public boolean isEmpty(int voxel)
+    {
+        return start[voxel] == start[voxel + 1];
+    }
+}
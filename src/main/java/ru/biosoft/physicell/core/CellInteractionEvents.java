@@ -0,0 +1,131 @@
+package ru.biosoft.physicell.core;
+
+import java.util.Arrays;
+
+import ru.biosoft.physicell.biofvm.AgentRegistry;
+import ru.biosoft.physicell.biofvm.BasicAgent;
+
+/**
+ * Two-phase evaluation of cell-cell interactions (phagocytosis, attack, fusion).<br>
+ * In the proposal phase each cell records its interaction events using state from the beginning of the phase only,
+ * events are stored by cell index in the agent registry, so cells can be processed in parallel.
+ * In the commit phase events are applied serially in order of predator ID (events of one predator in order of proposal).
+ * Conflicts are resolved by this order: target which was ingested or fused by a predator with lower ID is skipped
+ * by the existing checks of Cell.ingest_cell, Cell.fuse_cell and Cell.attack_cell, predator which was ingested or fused
+ * before its turn does not act.
+ */
+public class CellInteractionEvents
+{
+    public static final int INGEST = 0;
+    public static final int ATTACK = 1;
+    public static final int FUSE = 2;
+
+    private Cell[][] targets = new Cell[0][];
+    private int[][] kinds = new int[0][];
+    private int[] counts = new int[0];
+    private int size;
+
+    private long proposedCount;
+    private long appliedCount;
+
+    /**
+     * Starts proposal phase for registry of given size
+     */
+    public void begin(int size)
+    {
+        if( counts.length < size )
+        {
+            int capacity = Math.max( size, counts.length * 2 );
+            targets = Arrays.copyOf( targets, capacity );
+            kinds = Arrays.copyOf( kinds, capacity );
+            counts = new int[capacity];
+        }
+        else
+            Arrays.fill( counts, 0, this.size, 0 );
+        this.size = size;
+    }
+
+    /**
+     * Records event of predator with given target, only the predator slot is modified
+     */
+    public void propose(Cell predator, Cell target, int kind)
+    {
+        int i = predator.index;
+        int count = counts[i];
+        if( targets[i] == null )
+        {
+            targets[i] = new Cell[4];
+            kinds[i] = new int[4];
+        }
+        else if( count == targets[i].length )
+        {
+            targets[i] = Arrays.copyOf( targets[i], count * 2 );
+            kinds[i] = Arrays.copyOf( kinds[i], count * 2 );
+        }
+        targets[i][count] = target;
+        kinds[i][count] = kind;
+        counts[i] = count + 1;
+    }
+
+    /**
+     * Applies proposed events in order of predator ID
+     */
+    public void commit(AgentRegistry<BasicAgent> agents, double dt)
+    {
+        int predators = 0;
+        long[] order = new long[size];
+        for( int i = 0; i < size; i++ )
+        {
+            if( counts[i] > 0 )
+                order[predators++] = ( (long)agents.get( i ).ID << 32 ) | i;
+        }
+        Arrays.sort( order, 0, predators );
+
+        // consumed cells are only flagged for removal here, so registry is not changed during commit
+        for( int p = 0; p < predators; p++ )
+        {
+            int i = (int)order[p];
+            Cell predator = (Cell)agents.get( i );
+            for( int n = 0; n < counts[i]; n++ )
+            {
+                Cell target = targets[i][n];
+                targets[i][n] = null;
+                // predator was ingested or fused by cell with lower ID
+                if( predator.phenotype.death.dead || predator.phenotype.volume.total < 1e-15 )
+                    continue;
+                switch( kinds[i][n] )
+                {
+                    case INGEST:
+                        predator.ingest_cell( target );
+                        break;
+                    case ATTACK:
+                        predator.attack_cell( target, dt );
+                        break;
+                    case FUSE:
+                        predator.fuse_cell( target );
+                        break;
+                }
+                appliedCount++;
+            }
+            proposedCount += counts[i];
+            counts[i] = 0;
+        }
+        size = 0;
+    }
+
+    /**
+     * Total number of proposed events
+     */
+    public long getProposedCount()
+    {
+        return proposedCount;
+    }
+
+    /**
+     * Total number of events passed to Cell methods at commit (event is still skipped there if its target is already consumed)
+     */
+    public long getAppliedCount()
+    {
+        return appliedCount;
+    }
+}
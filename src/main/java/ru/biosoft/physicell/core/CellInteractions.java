@@ -123,6 +123,27 @@ public class CellInteractions implements Cloneable
         return immunogenicities[n];
     }
 
+    // by type (index of cell definition), these avoid lookup of definition by name in per-neighbor loops
+    public double live_phagocytosis_rate(int type)
+    {
+        return live_phagocytosis_rates[type];
+    }
+
+    public double attack_rate(int type)
+    {
+        return attack_rates[type];
+    }
+
+    public double fusion_rate(int type)
+    {
+        return fusion_rates[type];
+    }
+
+    public double immunogenicity(int type)
+    {
+        return immunogenicities[type];
+    }
+
     // ease of access 
     //    double&Cell_Interactions::live_phagocytosis_rate( std::string type_name )
     //    {
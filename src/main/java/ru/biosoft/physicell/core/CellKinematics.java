@@ -0,0 +1,270 @@
+package ru.biosoft.physicell.core;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import ru.biosoft.physicell.biofvm.ParallelUtil;
+
+/**
+ * Structure-of-arrays copy of cell data used by potential-based mechanics, indexed by cell index in the CellGrid.<br>
+ * Data is loaded from cells before velocity update (after the grid is rebuilt) and is valid only during this stage,
+ * velocity and pressure accumulated by pair-force kernel are written back to each cell by endCell.
+ */
+public class CellKinematics
+{
+    // 12 uniform neighbors at a close packing distance, after dividing out all constants
+    private static final double SIMPLE_PRESSURE_SCALE = 0.027288820670331; // 12 * (1 - sqrt(pi/(2*sqrt(3))))^2
+
+    private CellGrid grid;
+    private boolean loaded;
+    private boolean pairForces;
+    int size;
+
+    double[] x = new double[0];
+    double[] y = new double[0];
+    double[] z = new double[0];
+    double[] vx = new double[0];
+    double[] vy = new double[0];
+    double[] vz = new double[0];
+    double[] pressure = new double[0];
+    double[] radius = new double[0];
+    double[] repulsion = new double[0];
+    double[] adhesion = new double[0];
+    double[] maxAdhesionDistance = new double[0];
+    int[] type = new int[0];
+    double[][] affinities = new double[0][];
+    boolean[] active = new boolean[0];
+
+    /**
+     * Copies data of all cells in the grid, cells are processed in parallel if pool is not null
+     */
+    public void load(CellGrid grid, ForkJoinPool pool)
+    {
+        this.grid = grid;
+        size = grid.getCellsCount();
+        if( x.length < size )
+        {
+            int capacity = Math.max( size, x.length * 2 );
+            x = new double[capacity];
+            y = new double[capacity];
+            z = new double[capacity];
+            vx = new double[capacity];
+            vy = new double[capacity];
+            vz = new double[capacity];
+            pressure = new double[capacity];
+            radius = new double[capacity];
+            repulsion = new double[capacity];
+            adhesion = new double[capacity];
+            maxAdhesionDistance = new double[capacity];
+            type = new int[capacity];
+            affinities = new double[capacity][];
+            active = new boolean[capacity];
+        }
+        ParallelUtil.forEach( pool, size, i -> load( i, grid.getCell( i ) ) );
+        loaded = true;
+    }
+
+    private void load(int i, Cell cell)
+    {
+        x[i] = cell.position[0];
+        y[i] = cell.position[1];
+        z[i] = cell.position[2];
+        Mechanics mechanics = cell.phenotype.mechanics;
+        radius[i] = cell.phenotype.geometry.radius;
+        repulsion[i] = mechanics.cell_cell_repulsion_strength;
+        adhesion[i] = mechanics.cell_cell_adhesion_strength;
+        maxAdhesionDistance[i] = mechanics.relative_maximum_adhesion_distance * cell.phenotype.geometry.radius;
+        type[i] = cell.type;
+        affinities[i] = mechanics.cell_adhesion_affinities;
+        active[i] = !cell.isOutOfDomain && cell.isMovable && !cell.state.asleep && cell.functions.updateVelocity != null;
+    }
+
+    /**
+     * Marks data as outdated, called at the end of velocity update
+     */
+    public void unload()
+    {
+        loaded = false;
+        pairForces = false;
+        grid = null;
+        // do not retain removed cells
+        Arrays.fill( affinities, 0, size, null );
+    }
+
+    public boolean isLoaded()
+    {
+        return loaded;
+    }
+
+    /**
+     * @return index of the cell or -1 if the cell was not loaded
+     */
+    public int indexOf(Cell cell)
+    {
+        int i = cell.index;
+        return loaded && i >= 0 && i < size && grid.getCell( i ) == cell ? i : -1;
+    }
+
+    public Cell getCell(int i)
+    {
+        return grid.getCell( i );
+    }
+
+    /**
+     * Starts accumulation of potentials for cell i from its current velocity
+     */
+    public void beginCell(int i, Cell cell)
+    {
+        vx[i] = cell.velocity[0];
+        vy[i] = cell.velocity[1];
+        vz[i] = cell.velocity[2];
+        pressure[i] = cell.state.simple_pressure;
+    }
+
+    /**
+     * Writes velocity and pressure accumulated for cell i back to the cell
+     */
+    public void endCell(int i, Cell cell)
+    {
+        cell.velocity[0] = vx[i];
+        cell.velocity[1] = vy[i];
+        cell.velocity[2] = vz[i];
+        cell.state.simple_pressure = pressure[i];
+    }
+
+    /**
+     * Adds potential-based interaction of cell j to velocity and pressure of cell i, same as Cell.add_potentials.
+     * @return true if cell j is within adhesion distance, i.e. it is a mechanical neighbor of cell i
+     */
+    public boolean addPotentials(int i, int j)
+    {
+        if( i == j )
+            return false;
+
+        double dx = x[i] - x[j];
+        double dy = y[i] - y[j];
+        double dz = z[i] - z[j];
+        // Make sure that the distance is not zero
+        double distance = Math.max( Math.sqrt( dx * dx + dy * dy + dz * dz ), 0.00001 );
+
+        double compression = compression( i, j, distance );
+        // add the relative pressure contribution
+        pressure[i] += compression / SIMPLE_PRESSURE_SCALE;
+        double temp_r = potential( i, j, distance, compression );
+        if( Math.abs( temp_r ) < 1e-16 )
+            return isNeighbor( i, j, distance );
+        temp_r /= distance;
+        vx[i] += temp_r * dx;
+        vy[i] += temp_r * dy;
+        vz[i] += temp_r * dz;
+        return isNeighbor( i, j, distance );
+    }
+
+    /**
+     * Starts symmetric pair forces evaluation: accumulators of all cells are set to zero.
+     * Each pair is then visited once by addSymmetricPotentials and results are added to cells by applyPairForces
+     */
+    public void beginPairForces()
+    {
+        Arrays.fill( vx, 0, size, 0.0 );
+        Arrays.fill( vy, 0, size, 0.0 );
+        Arrays.fill( vz, 0, size, 0.0 );
+        Arrays.fill( pressure, 0, size, 0.0 );
+        pairForces = true;
+    }
+
+    /**
+     * @return true if pair forces were already computed for all cells by symmetric evaluation
+     */
+    public boolean hasPairForces()
+    {
+        return pairForces;
+    }
+
+    /**
+     * Computes potential-based interaction of cells i and j once and adds equal and opposite contributions to both cells.
+     * Pressure contribution is the same for both cells.
+     * @return true if cells are within adhesion distance, i.e. they are mechanical neighbors
+     */
+    public boolean addSymmetricPotentials(int i, int j)
+    {
+        double dx = x[i] - x[j];
+        double dy = y[i] - y[j];
+        double dz = z[i] - z[j];
+        double distance = Math.max( Math.sqrt( dx * dx + dy * dy + dz * dz ), 0.00001 );
+
+        double compression = compression( i, j, distance );
+        double p = compression / SIMPLE_PRESSURE_SCALE;
+        pressure[i] += p;
+        pressure[j] += p;
+        double temp_r = potential( i, j, distance, compression );
+        if( Math.abs( temp_r ) < 1e-16 )
+            return isNeighbor( i, j, distance );
+        temp_r /= distance;
+        dx *= temp_r;
+        dy *= temp_r;
+        dz *= temp_r;
+        vx[i] += dx;
+        vy[i] += dy;
+        vz[i] += dz;
+        vx[j] -= dx;
+        vy[j] -= dy;
+        vz[j] -= dz;
+        return isNeighbor( i, j, distance );
+    }
+
+    /**
+     * Adds velocity and pressure accumulated by symmetric evaluation to cell i
+     */
+    public void applyPairForces(int i, Cell cell)
+    {
+        cell.velocity[0] += vx[i];
+        cell.velocity[1] += vy[i];
+        cell.velocity[2] += vz[i];
+        cell.state.simple_pressure += pressure[i];
+    }
+
+    /**
+     * @return true if velocity of cell i is updated at this stage (cell is movable and inside the domain)
+     */
+    public boolean isActive(int i)
+    {
+        return active[i];
+    }
+
+    /**
+     * Relative compression (1-d/R)^2 of overlapping cells, zero if cells do not overlap
+     */
+    private double compression(int i, int j, double distance)
+    {
+        double R = radius[i] + radius[j];
+        if( distance > R )
+            return 0;
+        double temp_r = 1 - distance / R;
+        return temp_r * temp_r; // (1-d/R)^2
+    }
+
+    /**
+     * Repulsion minus adhesion potential (before division by distance)
+     */
+    private double potential(int i, int j, double distance, double compression)
+    {
+        double temp_r = compression * Math.sqrt( repulsion[i] * repulsion[j] );
+        double max_interactive_distance = maxAdhesionDistance[i] + maxAdhesionDistance[j];
+        if( distance < max_interactive_distance )
+        {
+            double temp_a = 1 - distance / max_interactive_distance;
+            temp_a *= temp_a; // (1-d/S)^2
+            double adhesion_ii = adhesion[i] * affinities[i][type[j]];
+            double adhesion_jj = adhesion[j] * affinities[j][type[i]];
+            temp_a *= Math.sqrt( adhesion_ii * adhesion_jj );
+            temp_r -= temp_a;
+        }
+        return temp_r;
+    }
+
+    private boolean isNeighbor(int i, int j, double distance)
+    {
+        return distance < maxAdhesionDistance[i] + maxAdhesionDistance[j];
+    }
+}
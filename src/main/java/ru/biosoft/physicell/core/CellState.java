@@ -71,8 +71,8 @@ import java.util.Set;
 */
 public class CellState
 {
-    Set<Cell> attached_cells;
-    Set<Cell> spring_attachments;
+    CellAttachments attached_cells;
+    CellAttachments spring_attachments;
     Set<Cell> neighbors;
     double[] orientation;
     double simple_pressure;
@@ -81,13 +81,19 @@ public class CellState
     double total_attack_time;
     boolean contact_with_basement_membrane; // not implemented yet 
 
+    // sleeping cells, see SleepingCells
+    boolean asleep;
+    int settled_steps;
+    long neighbors_signature;
+    double sleep_radius;
+
     public CellState()
     {
         neighbors = new HashSet<Cell>();//.resize(0); 
-        spring_attachments = new HashSet<>();//new Cell[0];//.resize(0); 
+        spring_attachments = new CellAttachments();//new Cell[0];//.resize(0); 
         orientation = new double[3];//.resize( 3 , 0.0 ); 
         simple_pressure = 0.0;
-        attached_cells = new HashSet<>();
+        attached_cells = new CellAttachments();
         number_of_nuclei = 1;
         damage = 0.0;
         total_attack_time = 0.0;
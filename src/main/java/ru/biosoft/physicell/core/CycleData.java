@@ -1,6 +1,7 @@
 package ru.biosoft.physicell.core;
 
-import java.util.ArrayList;
+import java.util.AbstractList;
+import java.util.Arrays;
 import java.util.List;
 
 /*
@@ -75,95 +76,110 @@ public class CycleData
 
     String timeUnits;
 
+    /**
+     * List views of rate tables, kept for backward compatibility: rates are stored in flat arrays (see getRate / setRate)
+     */
     public List<List<Double>> transitionRates;
 
     public List<List<Double>> basicRates;
 
+    // rates of phase_links[i][k] are stored at offsets[i] + k (layout of CycleModel.rate_offsets)
+    double[] rates = new double[0];
+    double[] basic_rates = new double[0];
+    int[] offsets = new int[] {0};
+
     public int currentPhaseIndex;
     public double elapsedTimePhase;
 
+    // event-driven transitions: remaining integrated rate until transition for links of clocksPhase, NaN if not sampled
+    double[] clocks;
+    int clocksPhase = -1;
+
     public CycleData(CycleModel model)
     {
         cycleModel = model;
         timeUnits = "min";
-        transitionRates = new ArrayList<>();
-        basicRates = new ArrayList<>();
+        transitionRates = new RatesView( false );
+        basicRates = new RatesView( true );
         currentPhaseIndex = 0;
         elapsedTimePhase = 0.0;
     }
 
-    private void resizeListList(List<List<Double>> list, int n)
-    {
-        if( n < list.size() )
-        {
-            for( int i = n; i < list.size(); i++ )
-                list.remove( i );
-        }
-        else if( n > list.size() )
-        {
-            for( int i = 0; i < n - list.size(); i++ )
-                list.add( new ArrayList<Double>() );
-        }
-    }
-
-    private void resizeList(List<Double> list, int n)
+    /**
+     * Rearranges rate tables after phases or links were added to the model, existing rates are kept
+     */
+    public void sync_to_cycle_model()
     {
-        if( n < list.size() )
-        {
-            for( int i = n; i < list.size(); i++ )
-                list.remove( i );
-        }
-        else if( n > list.size() )
+        int[] new_offsets = cycleModel.rate_offsets;
+        if( new_offsets == offsets )
+            return;
+        double[] new_rates = new double[new_offsets[new_offsets.length - 1]];
+        double[] new_basic_rates = new double[new_rates.length];
+        for( int i = 0; i < Math.min( offsets.length, new_offsets.length ) - 1; i++ )
         {
-            for( int i = 0; i < n - list.size(); i++ )
-                list.add( 0.0 );
+            int count = Math.min( offsets[i + 1] - offsets[i], new_offsets[i + 1] - new_offsets[i] );
+            System.arraycopy( rates, offsets[i], new_rates, new_offsets[i], count );
+            System.arraycopy( basic_rates, offsets[i], new_basic_rates, new_offsets[i], count );
         }
+        rates = new_rates;
+        basic_rates = new_basic_rates;
+        offsets = new_offsets;
     }
 
-    public void sync_to_cycle_model()
+    private int rateIndex(int start_phase_index, int end_phase_index)
     {
-        int n = cycleModel.phases.size();
-        resizeListList( transitionRates, n );
-        resizeListList( basicRates, n );
-        for( int i = 0; i < cycleModel.phase_links.size(); i++ )
-        {
-            int size = cycleModel.phase_links.get( i ).size();
-            for( int j = 0; j < size; j++ )
-            {
-                List<Double> rates = transitionRates.get( i );
-                resizeList( rates, size );
-                resizeList( basicRates.get( i ), size );
-            }
-        }
+        int k = cycleModel.link_index( start_phase_index, end_phase_index );
+        return offsets[start_phase_index] + k;
     }
 
     double getTransitionRate(int start_phase_index, int end_phase_index)
     {
-        int index = cycleModel.inverse_index_maps.get( start_phase_index ).get( end_phase_index );
-        return transitionRates.get( start_phase_index ).get( index );
+        return rates[rateIndex( start_phase_index, end_phase_index )];
     }
 
     public void setTransitionRate(int start_phase_index, int end_phase_index, double rate)
     {
-        int index = cycleModel.inverse_index_maps.get( start_phase_index ).get( end_phase_index );
-        transitionRates.get( start_phase_index ).set( index, rate );
-        basicRates.get( start_phase_index ).set( index, rate );
+        int index = rateIndex( start_phase_index, end_phase_index );
+        rates[index] = rate;
+        basic_rates[index] = rate;
     }
 
     public void modifyTransitionRate(int start_phase_index, int end_phase_index, double multiplier)
     {
-        int index = cycleModel.inverse_index_maps.get( start_phase_index ).get( end_phase_index );
-        double basic = this.basicRates.get( start_phase_index ).get( index );
-        transitionRates.get( start_phase_index ).set( index, basic * multiplier );
+        int index = rateIndex( start_phase_index, end_phase_index );
+        rates[index] = basic_rates[index] * multiplier;
+    }
+
+    /**
+     * Rate of link k of given phase (phase_links[phase_index][link_index])
+     */
+    public double getRate(int phase_index, int link_index)
+    {
+        return rates[offsets[phase_index] + link_index];
+    }
+
+    public void setRate(int phase_index, int link_index, double rate)
+    {
+        rates[offsets[phase_index] + link_index] = rate;
+    }
+
+    public double getBasicRate(int phase_index, int link_index)
+    {
+        return basic_rates[offsets[phase_index] + link_index];
+    }
+
+    public void setBasicRate(int phase_index, int link_index, double rate)
+    {
+        basic_rates[offsets[phase_index] + link_index] = rate;
     }
 
     double getExitRate(int phase_index)
     {
-        return transitionRates.get( phase_index ).get( 0 );
+        return getRate( phase_index, 0 );
     }
     public void setExitRate(int phase_exit, double rate)
     {
-        transitionRates.get( phase_exit ).set( 0, rate );
+        setRate( phase_exit, 0, rate );
     }
 
     public Phase currentPhase()
@@ -171,19 +187,106 @@ public class CycleData
         return cycleModel.phases.get( currentPhaseIndex );
     }
 
+    /**
+     * Clocks of links from given phase, clocks are reset if phase was changed since the last call
+     */
+    double[] getClocks(int phase_index, int links)
+    {
+        if( clocksPhase != phase_index || clocks == null || clocks.length < links )
+        {
+            if( clocks == null || clocks.length < links )
+                clocks = new double[links];
+            Arrays.fill( clocks, Double.NaN );
+            clocksPhase = phase_index;
+        }
+        return clocks;
+    }
+
+    void resetClocks()
+    {
+        clocksPhase = -1;
+    }
+
     public CycleData clone(CycleModel model)
     {
         CycleData result = new CycleData( model );
         result.timeUnits = this.timeUnits;
         result.currentPhaseIndex = this.currentPhaseIndex;
         result.elapsedTimePhase = this.elapsedTimePhase;
-        result.transitionRates = new ArrayList<>();
-        result.basicRates = new ArrayList<>();
-        for( int i = 0; i < transitionRates.size(); i++ )
+        result.rates = rates.clone();
+        result.basic_rates = basic_rates.clone();
+        result.offsets = offsets;
+        return result;
+    }
+
+    /**
+     * View of rates of all phases
+     */
+    private class RatesView extends AbstractList<List<Double>>
+    {
+        private final boolean basic;
+
+        RatesView(boolean basic)
         {
-            result.transitionRates.add( new ArrayList<Double>( transitionRates.get( i ) ) );
-            result.basicRates.add( new ArrayList<Double>( transitionRates.get( i ) ) );
+            this.basic = basic;
+        }
+
+        @Override
+        public List<Double> get(int phase_index)
+        {
+            if( phase_index < 0 || phase_index >= size() )
+                throw new IndexOutOfBoundsException( "Index: " + phase_index + ", size: " + size() );
+            return new PhaseRatesView( phase_index, basic );
+        }
+
+        @Override
+        public int size()
+        {
+            return offsets.length - 1;
+        }
+    }
+
+    /**
+     * View of rates of links of one phase, rates can be modified through it
+     */
+    private class PhaseRatesView extends AbstractList<Double>
+    {
+        private final int phase_index;
+        private final boolean basic;
+
+        PhaseRatesView(int phase_index, boolean basic)
+        {
+            this.phase_index = phase_index;
+            this.basic = basic;
+        }
+
+        private int index(int link_index)
+        {
+            if( link_index < 0 || link_index >= size() )
+                throw new IndexOutOfBoundsException( "Index: " + link_index + ", size: " + size() );
+            return offsets[phase_index] + link_index;
+        }
+
+        @Override
+        public Double get(int link_index)
+        {
+            return ( basic ? basic_rates : rates )[index( link_index )];
+        }
+
+        @Override
+        public Double set(int link_index, Double rate)
+        {
+            double[] table = basic ? basic_rates : rates;
+            int i = index( link_index );
+            double old = table[i];
+            table[i] = rate;
+            return old;
+        }
+
+        @Override
+        public int size()
+        {
+            return offsets[phase_index + 1] - offsets[phase_index];
         }
-        return result;
     }
-}
\ No newline at end of file
+}
@@ -1,9 +1,8 @@
 package ru.biosoft.physicell.core;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 
 /*
 ###############################################################################
@@ -77,8 +76,13 @@ public class CycleModel implements Cloneable
     /* this maps the end_phase_index to the link index in each phase_links[i]
     * So, index_inverse_map[i][j] = k, corresponds to phases[i], phase_links[i][k] (which links from phase i to phase j)
     * transition_rates[i][k] (the transition rate from phase i to phase j
+    * link_indices[i][j] = k or -1 if there is no link from phase i to phase j
     */
-    List<Map<Integer, Integer>> inverse_index_maps;
+    int[][] link_indices = new int[0][];
+    /* rate of phase_links[i][k] is stored in flat rate tables of CycleData at rate_offsets[i] + k, rate_offsets[phases.size()] is the number of links
+     * arrays are replaced (not modified) when links are added, so they can be shared by cloned models and used to detect layout changes
+     */
+    int[] rate_offsets = new int[] {0};
     String name;
     int code;
     List<Phase> phases;
@@ -88,7 +92,6 @@ public class CycleModel implements Cloneable
 
     public CycleModel()
     {
-        inverse_index_maps = new ArrayList<>();//HashMap<Integer, Integer>();//.resize( 0 );
         name = "unnamed";
         phases = new ArrayList<>();
         phase_links = new ArrayList<>();
@@ -107,7 +110,7 @@ public class CycleModel implements Cloneable
         int n = phases.size();
         phases.add( new Phase( name, n, code ) );
         phase_links.add( new ArrayList<PhaseLink>() );
-        inverse_index_maps.add( new HashMap<Integer, Integer>() );
+        update_link_indices();
         data.sync_to_cycle_model();
         return n;
     }
@@ -120,11 +123,28 @@ public class CycleModel implements Cloneable
         Phase start = phases.get( start_index );
         Phase end = phases.get( end_index );
         links.add( new PhaseLink( start, start_index, end, end_index, arrest ) );
-        inverse_index_maps.get( start_index ).put( end_index, n );//link from start_index to end_index have index n        
+        update_link_indices();//link from start_index to end_index have index n        
         data.sync_to_cycle_model(); // lastly, make sure the transition rates are the right size;
         return n;
     }
 
+    private void update_link_indices()
+    {
+        int n = phases.size();
+        int[][] indices = new int[n][n];
+        int[] offsets = new int[n + 1];
+        for( int i = 0; i < n; i++ )
+        {
+            Arrays.fill( indices[i], -1 );
+            List<PhaseLink> links = phase_links.get( i );
+            for( int k = 0; k < links.size(); k++ )
+                indices[i][links.get( k ).endPhaseIndex] = k;
+            offsets[i + 1] = offsets[i] + links.size();
+        }
+        link_indices = indices;
+        rate_offsets = offsets;
+    }
+
     public int add_phase_link(int start_index, int end_index, double rate, PhaseArrest arrestFunction) throws Exception
     {
         int n = add_phase_link( start_index, end_index, arrestFunction );
@@ -195,7 +215,27 @@ public class CycleModel implements Cloneable
 
     public PhaseLink phase_link(int start_index, int end_index)
     {
-        return phase_links.get( start_index ).get( inverse_index_maps.get( start_index ).get( end_index ) );
+        return phase_links.get( start_index ).get( link_index( start_index, end_index ) );
+    }
+
+    /**
+     * Index of link from phase start_index to phase end_index in phase_links[start_index]
+     * @throws IllegalArgumentException if there is no such link
+     */
+    int link_index(int start_index, int end_index)
+    {
+        int[][] indices = link_indices;
+        int k = start_index >= 0 && start_index < indices.length && end_index >= 0 && end_index < indices.length
+                ? indices[start_index][end_index] : -1;
+        if( k == -1 )
+            throw new IllegalArgumentException( "No link from phase " + phaseName( start_index ) + " to phase " + phaseName( end_index )
+                    + " in cycle model " + name );
+        return k;
+    }
+
+    private String phaseName(int index)
+    {
+        return index >= 0 && index < phases.size() ? index + " (" + phases.get( index ).name + ")" : String.valueOf( index );
     }
 
     public void advance(Cell pCell, Phenotype phenotype, double dt)
@@ -206,12 +246,15 @@ public class CycleModel implements Cloneable
 
         // Evaluate each linked phase: advance to that phase IF probabiltiy is in the range, and if the arrest function (if any) is false 
         List<PhaseLink> links = phase_links.get( i );
+        double[] rates = phenotype.cycle.data.rates;
+        int offset = phenotype.cycle.data.offsets[i];
+        double[] clocks = pCell != null && pCell.is_event_driven() ? phenotype.cycle.data.getClocks( i, links.size() ) : null;
         int j;
         for( int k = 0; k < links.size(); k++ )
         {
             PhaseLink link = links.get( k );
             j = link.endPhaseIndex;
-            double transition_rate = phenotype.cycle.data.transitionRates.get( i ).get( k );
+            double transition_rate = rates[offset + k];
 
             // check for arrest. If arrested, skip to the next transition
             boolean transition_arrested = false;
@@ -230,10 +273,14 @@ public class CycleModel implements Cloneable
                         continue_transition = true;
                     }
                 }
+                else if( clocks != null )
+                {
+                    continue_transition = fire( clocks, k, transition_rate * dt, pCell, PhysiCellRandom.CYCLE );
+                }
                 else
                 {
                     double prob = transition_rate * dt;
-                    if( Math.random() < prob )
+                    if( PhysiCellUtilities.UniformRandom( pCell, PhysiCellRandom.CYCLE ) < prob )
                     {
                         continue_transition = true;
                     }
@@ -261,6 +308,7 @@ public class CycleModel implements Cloneable
                     // move to the next phase, and reset the elapsed time 
                     phenotype.cycle.data.currentPhaseIndex = j;
                     phenotype.cycle.data.elapsedTimePhase = 0.0;
+                    phenotype.cycle.data.resetClocks();
 
                     // if the new phase has an entry function, execute it 
                     if( phases.get( j ).entryFunction != null )
@@ -273,6 +321,22 @@ public class CycleModel implements Cloneable
         }
     }
 
+    /**
+     * Event-driven transition: clock k holds remaining integrated rate until the event, it is sampled from Exp(1) when first needed
+     * and decreased by rate*dt at each step (the link is not evaluated while arrested).
+     * Changes of the rate are taken into account without resampling, as integrated rate of Poisson process is exponentially distributed.
+     * @return true if the event happens during this step
+     */
+    static boolean fire(double[] clocks, int k, double integrated_rate, Cell pCell, int site)
+    {
+        if( integrated_rate <= 0 )
+            return false;
+        if( Double.isNaN( clocks[k] ) )
+            clocks[k] = -Math.log( 1 - PhysiCellUtilities.UniformRandom( pCell, site ) );
+        clocks[k] -= integrated_rate;
+        return clocks[k] <= 0;
+    }
+
     @Override
     public CycleModel clone()
     {
@@ -282,7 +346,8 @@ public class CycleModel implements Cloneable
         result.phases = new ArrayList<Phase>( phases );
         result.phase_links = this.phase_links; //TODO: check
         result.default_phase_index = this.default_phase_index;
-        result.inverse_index_maps = this.inverse_index_maps;//TODO: check
+        result.link_indices = this.link_indices;
+        result.rate_offsets = this.rate_offsets;
         result.data = this.data.clone( result );
         return result;
     }
@@ -1,6 +1,8 @@
 package ru.biosoft.physicell.core;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /*
@@ -71,16 +73,24 @@ import java.util.List;
 */
 public class Death implements Cloneable
 {
+    /**
+     * List view of death rates, kept for backward compatibility: rates are stored in array (see getRate / setRate)
+     */
     public List<Double> rates;
+    double[] rate_values;
     List<CycleModel> models;
     List<DeathParameters> parameters;
 
     boolean dead;
     int current_death_model_index;
 
+    // event-driven death: remaining integrated rate of each death model, NaN if not sampled
+    double[] clocks;
+
     public Death()
     {
-        rates = new ArrayList<>();// double[0];//.resize( 0 ); 
+        rate_values = new double[0];
+        rates = new RatesView( this );
         models = new ArrayList<>();//= new CycleModel[0];//.resize( 0 ); 
         parameters = new ArrayList<>();//= new DeathParameters[0];//.resize( 0 ); 
 
@@ -88,13 +98,34 @@ public class Death implements Cloneable
         current_death_model_index = 0;
     }
 
+    private void add_rate(double rate)
+    {
+        rate_values = Arrays.copyOf( rate_values, rate_values.length + 1 );
+        rate_values[rate_values.length - 1] = rate;
+    }
+
+    public double getRate(int death_model_index)
+    {
+        return rate_values[death_model_index];
+    }
+
+    public void setRate(int death_model_index, double rate)
+    {
+        rate_values[death_model_index] = rate;
+    }
+
+    public int getModelsCount()
+    {
+        return rate_values.length;
+    }
+
     int add_death_model(double rate, CycleModel pModel)
     {
-        rates.add( rate );
+        add_rate( rate );
         models.add( pModel );
         parameters.add( new DeathParameters() );
         //    parameters.resize( rates.size() ); //TODO:
-        return rates.size() - 1;
+        return rate_values.length - 1;
     }
 
     int add_death_model(double rate, CycleModel pModel, DeathParameters deathParameters)
@@ -102,10 +133,10 @@ public class Death implements Cloneable
         //    rates.push_back( rate );
         //    models.push_back( pModel ); 
         //    parameters.push_back( death_parameters ); 
-        rates.add( rate );
+        add_rate( rate );
         models.add( pModel );
         parameters.add( deathParameters );
-        return rates.size() - 1;
+        return rate_values.length - 1;
     }
 
     int find_death_model_index(int code)
@@ -133,6 +164,14 @@ public class Death implements Cloneable
     }
 
     boolean check_for_death(double dt)
+    {
+        return check_for_death( null, dt );
+    }
+
+    /**
+     * @param cell cell used as a key of counter-based random draws, may be null
+     */
+    boolean check_for_death(Cell cell, double dt)
     {
         // If the cell is already dead, exit. 
         if( dead == true )
@@ -142,11 +181,19 @@ public class Death implements Cloneable
 
         // If the cell is alive, evaluate all the 
         // death rates for each registered death type. 
+        boolean eventDriven = cell != null && cell.is_event_driven();
+        if( eventDriven && ( clocks == null || clocks.length != rate_values.length ) )
+        {
+            clocks = new double[rate_values.length];
+            Arrays.fill( clocks, Double.NaN );
+        }
         int i = 0;
-        while( !dead && i < rates.size() )
+        while( !dead && i < rate_values.length )
         {
-            double rate = rates.get( i );
-            if( rate != 0 && Math.random() < rate * dt )
+            double rate = rate_values[i];
+            boolean event = eventDriven ? CycleModel.fire( clocks, i, rate * dt, cell, PhysiCellRandom.DEATH )
+                    : rate != 0 && PhysiCellUtilities.UniformRandom( cell, PhysiCellRandom.DEATH ) < rate * dt;
+            if( event )
             {
                 // update the Death data structure 
                 dead = true;
@@ -219,7 +266,9 @@ public class Death implements Cloneable
         try
         {
             Death result = (Death)super.clone();
-            result.rates = new ArrayList<>( rates );//this.rates  public List<Double> rates; 
+            result.clocks = null;
+            result.rate_values = rate_values.clone();
+            result.rates = new RatesView( result );
             result.parameters = new ArrayList<>();
             for( int i = 0; i < parameters.size(); i++ )
                         result.parameters.add( parameters.get( i ).clone() );
@@ -233,4 +282,37 @@ public class Death implements Cloneable
             throw ( new InternalError( e ) );
         }
     }
+
+    /**
+     * View of death rates, rates can be modified through it
+     */
+    private static class RatesView extends AbstractList<Double>
+    {
+        private final Death death;
+
+        RatesView(Death death)
+        {
+            this.death = death;
+        }
+
+        @Override
+        public Double get(int i)
+        {
+            return death.rate_values[i];
+        }
+
+        @Override
+        public Double set(int i, Double rate)
+        {
+            double old = death.rate_values[i];
+            death.rate_values[i] = rate;
+            return old;
+        }
+
+        @Override
+        public int size()
+        {
+            return death.rate_values.length;
+        }
+    }
 }
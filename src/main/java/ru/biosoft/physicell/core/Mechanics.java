@@ -135,6 +135,14 @@ public class Mechanics implements Cloneable
         return cell_adhesion_affinities[n];
     }
 
+    /**
+     * Adhesion affinity to cells of given type (index of cell definition), avoids lookup of definition by name
+     */
+    public double cell_adhesion_affinity(int type)
+    {
+        return cell_adhesion_affinities[type];
+    }
+
     void set_fully_heterotypic()
     {
         //        extern std::unordered_map<std::string,int> cell_definition_indices_by_name; 
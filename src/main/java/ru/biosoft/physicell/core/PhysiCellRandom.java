@@ -0,0 +1,139 @@
+package ru.biosoft.physicell.core;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Random number service used by all stochastic parts of the core (see PhysiCellUtilities.UniformRandom).<br>
+ * All streams are derived from a single seed: root SplittableRandom is split once for each thread on its first draw,
+ * so threads do not contend on a shared generator. Single-threaded runs with the same seed are reproducible.
+ * Subclasses may provide other generators by overriding uniform().<br>
+ * In counter-based mode draws made for a cell do not depend on threads: each number is a hash of (seed, cell ID, step, call site, counter),
+ * where step is the current step of the cell container and counter is the number of draws made for this cell at this call site during this step.
+ */
+public class PhysiCellRandom
+{
+    public static final long DEFAULT_SEED = 0;
+
+    // call sites of per-cell draws
+    public static final int MOTILITY = 0;
+    public static final int CYCLE = 1;
+    public static final int DEATH = 2;
+    public static final int SPRING_ATTACHMENTS = 3;
+    public static final int INTERACTIONS = 4;
+    public static final int DIVISION = 5;
+    public static final int SITES_COUNT = 6;
+
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    private final long seed;
+    private final SplittableRandom root;
+    private final ThreadLocal<SplittableRandom> streams;
+    private boolean counterBased;
+
+    public PhysiCellRandom()
+    {
+        this( DEFAULT_SEED );
+    }
+
+    public PhysiCellRandom(long seed)
+    {
+        this( seed, false );
+    }
+
+    public PhysiCellRandom(long seed, boolean counterBased)
+    {
+        this.seed = seed;
+        this.counterBased = counterBased;
+        this.root = new SplittableRandom( seed );
+        this.streams = ThreadLocal.withInitial( this::split );
+    }
+
+    public long getSeed()
+    {
+        return seed;
+    }
+
+    public boolean isCounterBased()
+    {
+        return counterBased;
+    }
+
+    public void setCounterBased(boolean counterBased)
+    {
+        this.counterBased = counterBased;
+    }
+
+    private synchronized SplittableRandom split()
+    {
+        return root.split();
+    }
+
+    /**
+     * @return stream of the current thread
+     */
+    public SplittableRandom getStream()
+    {
+        return streams.get();
+    }
+
+    /**
+     * Random number uniformly distributed in [0, 1)
+     */
+    public double uniform()
+    {
+        return streams.get().nextDouble();
+    }
+
+    /**
+     * Random number uniformly distributed in [0, 1) drawn for the cell at given call site.
+     * In counter-based mode it depends only on the seed, cell ID, step and number of previous draws for the cell at this site and step,
+     * otherwise (or if cell is null) it is the same as uniform(). Draws for one cell must not be made by several threads at once.
+     */
+    public double uniform(Cell cell, int site)
+    {
+        if( !counterBased || cell == null )
+            return uniform();
+        CellContainer container = cell.get_container();
+        return uniform( cell, container == null ? 0 : container.getStep(), site );
+    }
+
+    /**
+     * Same as uniform(Cell, int) with explicitly given step
+     */
+    public double uniform(Cell cell, long step, int site)
+    {
+        if( !counterBased || cell == null )
+            return uniform();
+        if( cell.random_counters == null )
+            cell.random_counters = new int[SITES_COUNT];
+        if( cell.random_step != step )
+        {
+            cell.random_step = step;
+            Arrays.fill( cell.random_counters, 0 );
+        }
+        return counterUniform( cell.ID, step, site, cell.random_counters[site]++ );
+    }
+
+    /**
+     * Counter-based random number: hash of the key (seed, id, step, site, counter) mapped to [0, 1)
+     */
+    public double counterUniform(int id, long step, int site, int counter)
+    {
+        long h = mix( seed + GOLDEN_GAMMA );
+        h = mix( h ^ ( id & 0xFFFFFFFFL ) );
+        h = mix( h + step * GOLDEN_GAMMA );
+        h = mix( h ^ ( ( (long)site << 32 ) | ( counter & 0xFFFFFFFFL ) ) );
+        return ( h >>> 11 ) * 0x1.0p-53;
+    }
+
+    /**
+     * SplitMix64 finalizer
+     */
+    private static long mix(long z)
+    {
+        z = ( z ^ ( z >>> 30 ) ) * 0xBF58476D1CE4E5B9L;
+        z = ( z ^ ( z >>> 27 ) ) * 0x94D049BB133111EBL;
+        return z ^ ( z >>> 31 );
+    }
+}
@@ -4,11 +4,39 @@ import ru.biosoft.physicell.biofvm.GeneralMesh;
 
 public class PhysiCellUtilities
 {
+    private static volatile PhysiCellRandom random = new PhysiCellRandom();
+
+    /**
+     * Sets seed of all random draws, streams of all threads are restarted, counter-based mode is kept
+     */
+    public static void setSeed(long seed)
+    {
+        random = new PhysiCellRandom( seed, random.isCounterBased() );
+    }
+
+    public static void setRandom(PhysiCellRandom random)
+    {
+        PhysiCellUtilities.random = random;
+    }
+
+    public static PhysiCellRandom getRandom()
+    {
+        return random;
+    }
+
     public static double[] UniformOnUnitSphere()
+    {
+        return UniformOnUnitSphere( null, 0 );
+    }
+
+    /**
+     * Random unit vector drawn for the cell at given call site, see PhysiCellRandom.uniform(Cell, int)
+     */
+    public static double[] UniformOnUnitSphere(Cell cell, int site)
     {
         double[] output = {0, 0, 0};
-        double z = 2 * UniformRandom() - 1;// Choose z uniformly distributed in [-1,1].
-        double theta = UniformRandom() * 2 * Math.PI;// Choose theta uniformly distributed on [0, 2*pi).
+        double z = 2 * UniformRandom( cell, site ) - 1;// Choose z uniformly distributed in [-1,1].
+        double theta = UniformRandom( cell, site ) * 2 * Math.PI;// Choose theta uniformly distributed on [0, 2*pi).
         double r = Math.sqrt( 1 - z * z ); // Let r = sqrt(1-z^2).
         output[0] = r * Math.cos( theta );
         output[1] = r * Math.sin( theta );
@@ -17,18 +45,31 @@ public class PhysiCellUtilities
     }
 
     public static double[] UniformOnUnitCircle()
+    {
+        return UniformOnUnitCircle( null, 0 );
+    }
+
+    public static double[] UniformOnUnitCircle(Cell cell, int site)
     {
         double[] output = {0, 0, 0};
-        double theta = UniformRandom(); //  BioFVM::uniform_random();
+        double theta = UniformRandom( cell, site ); //  BioFVM::uniform_random();
         theta *= 2 * Math.PI;//two_pi; // Choose theta uniformly distributed on [0, 2*pi).
         output[0] = Math.cos( theta );
         output[1] = Math.sin( theta ); // (cos(t) , sin(t) , 0 )
         return output;
     }
 
+    /**
+     * Random number drawn for the cell at given call site, in counter-based mode it does not depend on threads (see PhysiCellRandom)
+     */
+    public static double UniformRandom(Cell cell, int site)
+    {
+        return random.uniform( cell, site );
+    }
+
     public static double UniformRandom()
     {
-        return Math.random();
+        return random.uniform();
         //        thread_local std::uniform_real_distribution<double> distribution(0.0,1.0);
         //        if( local_pnrg_setup_done == false )
         //        {
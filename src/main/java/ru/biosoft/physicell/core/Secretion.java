@@ -92,7 +92,17 @@ public class Secretion implements Cloneable
         if( cell == null )
             return;
 
-        // make sure the associated cell has the correct rate vectors 
+        sync_to_cell( cell, phenotype, dt );
+
+        // now, call the BioFVM secretion/uptake function 
+        cell.simulateSecretionUptake( cell.getMicroenvironment(), dt );
+    }
+
+    /**
+     * Makes sure the associated cell has the correct rate vectors, does not change densities
+     */
+    public void sync_to_cell(BasicAgent cell, Phenotype phenotype, double dt)
+    {
         if( cell.secretionRates != secretionRates )
         {
             cell.secretionRates = secretionRates;
@@ -102,9 +112,6 @@ public class Secretion implements Cloneable
             cell.setTotalVolume( phenotype.volume.total );
             cell.setUptakeConstants( dt );
         }
-
-        // now, call the BioFVM secretion/uptake function 
-        cell.simulateSecretionUptake( cell.getMicroenvironment(), dt );
     }
 
     public void set_all_secretion_to_zero()
@@ -28,7 +28,7 @@ public class SignalBehavior
         int start_substrate_ind = find_signal_index( microenvironment.density_names[0] ); 
         if( start_substrate_ind <= index && index < start_substrate_ind + m )
         {
-            out = pCell.nearest_density_vector()[index-start_substrate_ind];
+            out = pCell.nearest_density( index-start_substrate_ind );
             out /= signal_scales[index]; 
             return out; 
         }
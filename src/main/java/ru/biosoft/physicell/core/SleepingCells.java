@@ -0,0 +1,189 @@
+package ru.biosoft.physicell.core;
+
+import java.util.Set;
+
+import ru.biosoft.physicell.biofvm.BasicAgent;
+import ru.biosoft.physicell.biofvm.VectorUtil;
+
+/**
+ * Sleeping (settled) cells for mechanics.<br>
+ * Cell falls asleep when its speed stays below threshold and its set of mechanical neighbors does not change for a number of mechanics steps.
+ * Sleeping cell is skipped by velocity update, spring forces and position update, but still acts on other cells.
+ * It is woken when its or its neighbor radius changes, when a neighbor moves faster than threshold, when a neighbor divides or dies,
+ * or when other cell enters its interaction range (neighbors of sleeping cell are not updated, so it is woken to find new neighbors).
+ */
+public class SleepingCells
+{
+    private double speedThreshold;
+    private int stepsToSleep;
+    private double radiusTolerance = 1e-3;
+
+    private int asleepCount;
+    private int cellsCount;
+    private long wokenCount;
+
+    /**
+     * @param speedThreshold cells slower than threshold are considered settled
+     * @param stepsToSleep number of consecutive settled mechanics steps before cell falls asleep
+     */
+    public SleepingCells(double speedThreshold, int stepsToSleep)
+    {
+        this.speedThreshold = speedThreshold;
+        this.stepsToSleep = stepsToSleep;
+    }
+
+    public double getSpeedThreshold()
+    {
+        return speedThreshold;
+    }
+
+    public void setSpeedThreshold(double speedThreshold)
+    {
+        this.speedThreshold = speedThreshold;
+    }
+
+    public int getStepsToSleep()
+    {
+        return stepsToSleep;
+    }
+
+    public void setStepsToSleep(int stepsToSleep)
+    {
+        this.stepsToSleep = stepsToSleep;
+    }
+
+    /**
+     * Relative change of radius which wakes the cell
+     */
+    public double getRadiusTolerance()
+    {
+        return radiusTolerance;
+    }
+
+    public void setRadiusTolerance(double radiusTolerance)
+    {
+        this.radiusTolerance = radiusTolerance;
+    }
+
+    /**
+     * Number of sleeping cells after the last mechanics step
+     */
+    public int getAsleepCount()
+    {
+        return asleepCount;
+    }
+
+    /**
+     * Fraction of sleeping cells among movable cells inside the domain after the last mechanics step
+     */
+    public double getSleepingFraction()
+    {
+        return cellsCount == 0 ? 0 : (double)asleepCount / cellsCount;
+    }
+
+    /**
+     * Total number of times sleeping cells were woken
+     */
+    public long getWokenCount()
+    {
+        return wokenCount;
+    }
+
+    /**
+     * Called before velocity update: wakes cells whose radius was changed and their neighbors, as forces between them are changed
+     */
+    void wakeChanged(Set<BasicAgent> agents)
+    {
+        for( BasicAgent agent : agents )
+        {
+            Cell cell = (Cell)agent;
+            if( cell.state.asleep
+                    && Math.abs( cell.phenotype.geometry.radius - cell.state.sleep_radius ) > radiusTolerance * cell.state.sleep_radius )
+            {
+                wake( cell );
+                wakeNeighbors( cell );
+            }
+        }
+    }
+
+    /**
+     * Called after velocity update (before position update): settled cells fall asleep, moving cells wake their sleeping neighbors,
+     * sleeping cells which were reached by other cell are woken
+     */
+    void update(Set<BasicAgent> agents)
+    {
+        asleepCount = 0;
+        cellsCount = 0;
+        for( BasicAgent agent : agents )
+        {
+            Cell cell = (Cell)agent;
+            if( cell.isOutOfDomain || !cell.isMovable )
+                continue;
+            cellsCount++;
+            if( cell.state.asleep )
+                continue;
+            wakeReached( cell );
+            long signature = neighbors_signature( cell.state.neighbors );
+            if( VectorUtil.norm( cell.velocity ) < speedThreshold )
+            {
+                cell.state.settled_steps = signature == cell.state.neighbors_signature ? cell.state.settled_steps + 1 : 0;
+                if( cell.state.settled_steps >= stepsToSleep )
+                {
+                    cell.state.asleep = true;
+                    cell.state.sleep_radius = cell.phenotype.geometry.radius;
+                    cell.velocity[0] = 0;
+                    cell.velocity[1] = 0;
+                    cell.velocity[2] = 0;
+                    cell.setPreviousVelocity( 0, 0, 0 );
+                }
+            }
+            else
+            {
+                cell.state.settled_steps = 0;
+                wakeNeighbors( cell );
+            }
+            cell.state.neighbors_signature = signature;
+        }
+        for( BasicAgent agent : agents )
+        {
+            Cell cell = (Cell)agent;
+            if( cell.state.asleep && !cell.isOutOfDomain && cell.isMovable )
+                asleepCount++;
+        }
+    }
+
+    void wake(Cell cell)
+    {
+        if( !cell.state.asleep )
+            return;
+        cell.state.asleep = false;
+        cell.state.settled_steps = 0;
+        wokenCount++;
+    }
+
+    /**
+     * Wakes sleeping neighbors of awake cell which do not have it among their neighbors, i.e. it entered their interaction range while they slept
+     */
+    private void wakeReached(Cell cell)
+    {
+        for( Cell neighbor : cell.state.neighbors )
+        {
+            if( neighbor.state.asleep && !neighbor.state.neighbors.contains( cell ) )
+                wake( neighbor );
+        }
+    }
+
+    void wakeNeighbors(Cell cell)
+    {
+        for( Cell neighbor : cell.state.neighbors )
+            wake( neighbor );
+    }
+
+    private static long neighbors_signature(Set<Cell> neighbors)
+    {
+        long sum = 0;
+        for( Cell neighbor : neighbors )
+            sum += neighbor.ID * 0x9E3779B97F4A7C15L;
+        return sum ^ neighbors.size();
+    }
+}
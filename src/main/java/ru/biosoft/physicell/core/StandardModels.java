@@ -465,7 +465,35 @@ public class StandardModels
             }
 
             pCell.state.simple_pressure = 0.0;
+            CellContainer container = pCell.get_container();
+            // during velocity update stage of container pair forces are computed on arrays
+            CellKinematics kinematics = container.kinematics;
+            int index = kinematics.indexOf( pCell );
+            if( index >= 0 && kinematics.hasPairForces() )
+            {
+                // pair forces and neighbors were computed by container, each pair is visited once
+                kinematics.applyPairForces( index, pCell );
+                pCell.update_motility_vector( dt );
+                VectorUtil.sum( pCell.velocity, phenotype.motility.motility_vector );
+                return;
+            }
             pCell.state.neighbors.clear(); // new 1.8.0
+            VerletLists verletLists = container.verletLists;
+            if( index >= 0 && verletLists != null && verletLists.isValid() )
+            {
+                // candidates were found by container at last rebuild of neighbor lists
+                kinematics.beginCell( index, pCell );
+                int[] candidates = verletLists.getCandidates( index );
+                for( int i = 0; i < verletLists.getCandidatesCount( index ); i++ )
+                {
+                    if( kinematics.addPotentials( index, candidates[i] ) )
+                        pCell.state.neighbors.add( kinematics.getCell( candidates[i] ) );
+                }
+                kinematics.endCell( index, pCell );
+                pCell.update_motility_vector( dt );
+                VectorUtil.sum( pCell.velocity, phenotype.motility.motility_vector );
+                return;
+            }
 
             //First check the neighbors in my current voxel
             //        std::vector<Cell*>::iterator neighbor;
@@ -474,9 +502,19 @@ public class StandardModels
             //        {
             //            pCell.add_potentials(*neighbor);
             //        }
-            for( Cell neighbor : pCell.get_container().agent_grid.get( pCell.get_current_mechanics_voxel_index() ) )
+            CellGrid grid = container.get_grid();
+            int voxel_index = pCell.get_current_mechanics_voxel_index();
+            if( index >= 0 )
             {
-                pCell.add_potentials( neighbor );
+                kinematics.beginCell( index, pCell );
+                add_potentials( kinematics, grid, index, pCell, grid.getStart( voxel_index ), grid.getEnd( voxel_index ) );
+            }
+            else
+            {
+                for( int i = grid.getStart( voxel_index ); i < grid.getEnd( voxel_index ); i++ )
+                {
+                    pCell.add_potentials( grid.getCell( grid.getSorted( i ) ) );
+                }
             }
             //        std::vector<int>::iterator neighbor_voxel_index;
             //        std::vector<int>::iterator neighbor_voxel_index_end = 
@@ -494,33 +532,61 @@ public class StandardModels
             //                pCell.add_potentials(neighbor);
             //            }
             //        }
-            for( int neighbor_voxel_index : pCell.get_container().underlying_mesh.moore_connected_voxel_indices[pCell
-                    .get_current_mechanics_voxel_index()] )
+            int[] neighbor_voxels = container.underlying_mesh.moore_connected_voxel_indices[voxel_index];
+            for( int n = 0; n < neighbor_voxels.length; n++ )
             {
-                if( !Cell.is_neighbor_voxel( pCell,
-                        pCell.get_container().underlying_mesh.voxels[pCell.get_current_mechanics_voxel_index()].center,
-                        pCell.get_container().underlying_mesh.voxels[neighbor_voxel_index].center, neighbor_voxel_index ) )
+                int neighbor_voxel_index = neighbor_voxels[n];
+                if( !Cell.is_neighbor_voxel( pCell, voxel_index, n ) )
                     continue;
-                for( Cell neighbor : pCell.get_container().agent_grid.get( neighbor_voxel_index ) )
+                if( index >= 0 )
                 {
-                    pCell.add_potentials( neighbor );
+                    add_potentials( kinematics, grid, index, pCell, grid.getStart( neighbor_voxel_index ), grid.getEnd( neighbor_voxel_index ) );
+                    continue;
+                }
+                for( int i = grid.getStart( neighbor_voxel_index ); i < grid.getEnd( neighbor_voxel_index ); i++ )
+                {
+                    pCell.add_potentials( grid.getCell( grid.getSorted( i ) ) );
                 }
             }
+            if( index >= 0 )
+                kinematics.endCell( index, pCell );
             pCell.update_motility_vector( dt );
             VectorUtil.sum( pCell.velocity, phenotype.motility.motility_vector );
         }
+
+        private static void add_potentials(CellKinematics kinematics, CellGrid grid, int index, Cell pCell, int start, int end)
+        {
+            for( int i = start; i < end; i++ )
+            {
+                int j = grid.getSorted( i );
+                if( kinematics.addPotentials( index, j ) )
+                    pCell.state.neighbors.add( grid.getCell( j ) );
+            }
+        }
     }
 
     public static void dynamic_spring_attachments(Cell pCell, Phenotype phenotype, double dt)
+    {
+        AttachmentChanges changes = new AttachmentChanges();
+        dynamic_spring_attachments( pCell, phenotype, dt, changes );
+        changes.apply();
+    }
+
+    /**
+     * Proposes detachments and new attachments of the cell, changes are applied by the caller after all cells are processed
+     */
+    public static void dynamic_spring_attachments(Cell pCell, Phenotype phenotype, double dt, AttachmentChanges changes)
     {
         // check for detachments 
         double detachment_probability = phenotype.mechanics.detachment_rate * dt;
+        int number_of_attachments = pCell.state.spring_attachments.size();
 
         for( Cell pTest : pCell.state.spring_attachments )
         {
-            if( PhysiCellUtilities.UniformRandom() <= detachment_probability )
+            if( PhysiCellUtilities.UniformRandom( pCell, PhysiCellRandom.SPRING_ATTACHMENTS ) <= detachment_probability )
             {
-                Cell.detach_cells_as_spring( pCell, pTest );
+                changes.detach( pCell, pTest );
+                number_of_attachments--;
             }
         }
         //        for( int j = 0; j < pCell.state.spring_attachments.size(); j++ )
@@ -533,15 +599,13 @@ public class StandardModels
         //        }
 
         // check if I have max number of attachments 
-        if( pCell.state.spring_attachments.size() >= phenotype.mechanics.maximum_number_of_attachments )
+        if( number_of_attachments >= phenotype.mechanics.maximum_number_of_attachments )
         {
             return;
         }
 
         // check for new attachments; 
         double attachment_probability = phenotype.mechanics.attachment_rate * dt;
-        boolean done = false;
-        int j = 0;
 
         for( Cell pTest : pCell.state.neighbors )
         {
@@ -549,18 +613,17 @@ public class StandardModels
             {
                 // std::string search_string = "adhesive affinity to " + pTest->type_name; 
                 // double affinity = get_single_behavior( pCell , search_string );
-                double affinity = phenotype.mechanics.cell_adhesion_affinity( pTest.type_name );
+                double affinity = phenotype.mechanics.cell_adhesion_affinity( pTest.type );
 
                 double prob = attachment_probability * affinity;
-                if( PhysiCellUtilities.UniformRandom() <= prob )
+                if( PhysiCellUtilities.UniformRandom( pCell, PhysiCellRandom.SPRING_ATTACHMENTS ) <= prob
+                        && !pCell.state.spring_attachments.contains( pTest ) )
                 {
-                    // attempt the attachment. testing for prior connection is already automated 
-                    Cell.attach_cells_as_spring( pCell, pTest );
-                    if( pCell.state.spring_attachments.size() >= phenotype.mechanics.maximum_number_of_attachments )
-                    {
-                        done = true;
+                    // capacity of both cells is checked again when the attachment is applied
+                    changes.attach( pCell, pTest );
+                    number_of_attachments++;
+                    if( number_of_attachments >= phenotype.mechanics.maximum_number_of_attachments )
                         break;
-                    }
                 }
             }
         }
@@ -664,7 +727,7 @@ public class StandardModels
                 return;
 
             // sample the microenvironment to get the pO2 value 
-            double pO2 = ( pCell.nearest_density_vector() )[oxygen_substrate_index]; // PhysiCellConstants.oxygen_index]; 
+            double pO2 = pCell.nearest_density( oxygen_substrate_index ); // PhysiCellConstants.oxygen_index]; 
             int n = pCell.phenotype.cycle.data.currentPhaseIndex;
 
             // this multiplier is for linear interpolation of the oxygen value 
@@ -699,13 +762,13 @@ public class StandardModels
             // now, update the necrosis rate 
 
             //        pCell.phenotype.death.rates[necrosis_index] = multiplier * pCell.parameters.max_necrosis_rate;
-            pCell.phenotype.death.rates.set( necrosis_index, multiplier * pCell.parameters.max_necrosis_rate );
+            pCell.phenotype.death.setRate( necrosis_index, multiplier * pCell.parameters.max_necrosis_rate );
             // check for deterministic necrosis 
 
             if( pCell.parameters.necrosis_type == PhysiCellConstants.deterministic_necrosis && multiplier > 1e-16 )
             {
                 //            pCell.phenotype.death.rates[necrosis_index] = 9e99;
-                pCell.phenotype.death.rates.set( necrosis_index, 9e99 );
+                pCell.phenotype.death.setRate( necrosis_index, 9e99 );
             }
         }
     }
@@ -775,6 +838,14 @@ public class StandardModels
     }
 
     public static void standard_cell_cell_interactions(Cell pCell, Phenotype phenotype, double dt)
+    {
+        standard_cell_cell_interactions( pCell, phenotype, dt, null );
+    }
+
+    /**
+     * If events are not null, interactions are only proposed (cell state is not modified) and are applied later by CellInteractionEvents.commit
+     */
+    public static void standard_cell_cell_interactions(Cell pCell, Phenotype phenotype, double dt, CellInteractionEvents events)
     {
         if( phenotype.death.dead == true )
         {
@@ -783,7 +854,6 @@ public class StandardModels
 
         //        Cell pTarget = null; 
         int type = -1;
-        String type_name = "none";
         double probability = 0.0;
 
         boolean attacked = false;
@@ -796,7 +866,6 @@ public class StandardModels
         for( Cell pTarget : pCell.state.neighbors )
         {
             type = pTarget.type;
-            type_name = pTarget.type_name;
 
             if( pTarget.phenotype.volume.total < 1e-15 )
             {
@@ -807,19 +876,25 @@ public class StandardModels
             {
                 // dead phagocytosis 
                 probability = phenotype.cell_interactions.dead_phagocytosis_rate * dt;
-                if( PhysiCellUtilities.UniformRandom() < probability )
+                if( PhysiCellUtilities.UniformRandom( pCell, PhysiCellRandom.INTERACTIONS ) < probability )
                 {
-                    pCell.ingest_cell( pTarget );
+                    if( events != null )
+                        events.propose( pCell, pTarget, CellInteractionEvents.INGEST );
+                    else
+                        pCell.ingest_cell( pTarget );
                 }
             }
             else
             {
                 // live phagocytosis
                 // assume you can only phagocytose one at a time for now 
-                probability = phenotype.cell_interactions.live_phagocytosis_rate( type_name ) * dt; // s[type] * dt;  
-                if( PhysiCellUtilities.UniformRandom() < probability && !phagocytosed )
+                probability = phenotype.cell_interactions.live_phagocytosis_rate( type ) * dt; // s[type] * dt;  
+                if( PhysiCellUtilities.UniformRandom( pCell, PhysiCellRandom.INTERACTIONS ) < probability && !phagocytosed )
                 {
-                    pCell.ingest_cell( pTarget );
+                    if( events != null )
+                        events.propose( pCell, pTarget, CellInteractionEvents.INGEST );
+                    else
+                        pCell.ingest_cell( pTarget );
                     phagocytosed = true;
                 }
 
@@ -827,23 +902,29 @@ public class StandardModels
                 // assume you can only attack one cell at a time 
                 // probability = phenotype.cell_interactions.attack_rate(type_name)*dt; // s[type] * dt;  
 
-                double attack_ij = phenotype.cell_interactions.attack_rate( type_name );
-                double immunogenicity_ji = pTarget.phenotype.cell_interactions.immunogenicity( pCell.type_name );
+                double attack_ij = phenotype.cell_interactions.attack_rate( type );
+                double immunogenicity_ji = pTarget.phenotype.cell_interactions.immunogenicity( pCell.type );
 
                 probability = attack_ij * immunogenicity_ji * dt;
 
-                if( PhysiCellUtilities.UniformRandom() < probability && !attacked )
+                if( PhysiCellUtilities.UniformRandom( pCell, PhysiCellRandom.INTERACTIONS ) < probability && !attacked )
                 {
-                    pCell.attack_cell( pTarget, dt );
+                    if( events != null )
+                        events.propose( pCell, pTarget, CellInteractionEvents.ATTACK );
+                    else
+                        pCell.attack_cell( pTarget, dt );
                     attacked = true;
                 }
 
                 // fusion 
                 // assume you can only fuse once cell at a time 
-                probability = phenotype.cell_interactions.fusion_rate( type_name ) * dt; // s[type] * dt;  
-                if( PhysiCellUtilities.UniformRandom() < probability && !fused )
+                probability = phenotype.cell_interactions.fusion_rate( type ) * dt; // s[type] * dt;  
+                if( PhysiCellUtilities.UniformRandom( pCell, PhysiCellRandom.INTERACTIONS ) < probability && !fused )
                 {
-                    pCell.fuse_cell( pTarget );
+                    if( events != null )
+                        events.propose( pCell, pTarget, CellInteractionEvents.FUSE );
+                    else
+                        pCell.fuse_cell( pTarget );
                     fused = true;
                 }
             }
@@ -0,0 +1,182 @@
+package ru.biosoft.physicell.core;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import ru.biosoft.physicell.biofvm.CartesianMesh;
+import ru.biosoft.physicell.biofvm.ParallelUtil;
+
+/**
+ * Verlet neighbor lists for mechanics: each cell keeps candidates from its Moore neighborhood closer than interaction distance plus skin.<br>
+ * Interaction distance of a pair is the larger of the sum of radii and the sum of maximum adhesion distances.
+ * Lists remain valid while displacement plus growth of interaction distance of every cell since the last rebuild does not exceed half of the skin,
+ * they are also rebuilt when cells are added or removed. Lists are indexed by cell index in the CellGrid.
+ */
+public class VerletLists
+{
+    private double skin;
+
+    private Cell[] cells = new Cell[0];
+    private int size;
+    private double[] x0 = new double[0];
+    private double[] y0 = new double[0];
+    private double[] z0 = new double[0];
+    private double[] radius0 = new double[0];
+    private double[] adhesion0 = new double[0];
+    private int[][] candidates = new int[0][];
+    private int[] candidatesCount = new int[0];
+    private boolean valid;
+
+    private long updateCount;
+    private long rebuildCount;
+
+    public VerletLists(double skin)
+    {
+        this.skin = skin;
+    }
+
+    public double getSkin()
+    {
+        return skin;
+    }
+
+    public void setSkin(double skin)
+    {
+        this.skin = skin;
+        size = 0; // force rebuild
+    }
+
+    /**
+     * Number of mechanics steps where lists were used
+     */
+    public long getUpdateCount()
+    {
+        return updateCount;
+    }
+
+    /**
+     * Number of mechanics steps where lists were rebuilt
+     */
+    public long getRebuildCount()
+    {
+        return rebuildCount;
+    }
+
+    /**
+     * @return true if lists can be used at current velocity update stage
+     */
+    public boolean isValid()
+    {
+        return valid;
+    }
+
+    public int[] getCandidates(int i)
+    {
+        return candidates[i];
+    }
+
+    public int getCandidatesCount(int i)
+    {
+        return candidatesCount[i];
+    }
+
+    /**
+     * Checks lists against loaded kinematics and rebuilds them if needed, called by container before velocity update stage
+     */
+    void update(CellKinematics kinematics, CellGrid grid, CartesianMesh mesh, ForkJoinPool pool)
+    {
+        updateCount++;
+        if( needsRebuild( kinematics, grid ) )
+        {
+            rebuild( kinematics, grid, mesh, pool );
+            rebuildCount++;
+        }
+        valid = true;
+    }
+
+    /**
+     * Called by container at the end of velocity update stage
+     */
+    void invalidate()
+    {
+        valid = false;
+    }
+
+    private boolean needsRebuild(CellKinematics kinematics, CellGrid grid)
+    {
+        if( size != grid.getCellsCount() )
+            return true;
+        double half = skin / 2;
+        for( int i = 0; i < size; i++ )
+        {
+            if( cells[i] != grid.getCell( i ) )
+                return true;
+            double dx = kinematics.x[i] - x0[i];
+            double dy = kinematics.y[i] - y0[i];
+            double dz = kinematics.z[i] - z0[i];
+            double growth = Math.max( 0, Math.max( kinematics.radius[i] - radius0[i], kinematics.maxAdhesionDistance[i] - adhesion0[i] ) );
+            if( Math.sqrt( dx * dx + dy * dy + dz * dz ) + growth > half )
+                return true;
+        }
+        return false;
+    }
+
+    private void rebuild(CellKinematics kinematics, CellGrid grid, CartesianMesh mesh, ForkJoinPool pool)
+    {
+        size = grid.getCellsCount();
+        if( cells.length < size )
+        {
+            int capacity = Math.max( size, cells.length * 2 );
+            cells = new Cell[capacity];
+            x0 = new double[capacity];
+            y0 = new double[capacity];
+            z0 = new double[capacity];
+            radius0 = new double[capacity];
+            adhesion0 = new double[capacity];
+            candidates = Arrays.copyOf( candidates, capacity );
+            candidatesCount = new int[capacity];
+        }
+        ParallelUtil.forEach( pool, size, i -> build( i, kinematics, grid, mesh ) );
+        Arrays.fill( cells, size, cells.length, null );
+    }
+
+    private void build(int i, CellKinematics kinematics, CellGrid grid, CartesianMesh mesh)
+    {
+        cells[i] = grid.getCell( i );
+        x0[i] = kinematics.x[i];
+        y0[i] = kinematics.y[i];
+        z0[i] = kinematics.z[i];
+        radius0[i] = kinematics.radius[i];
+        adhesion0[i] = kinematics.maxAdhesionDistance[i];
+        candidatesCount[i] = 0;
+        int voxel = cells[i].get_current_mechanics_voxel_index();
+        if( voxel < 0 )
+            return;
+        addCandidates( i, kinematics, grid, voxel );
+        for( int neighbor_voxel : mesh.moore_connected_voxel_indices[voxel] )
+            addCandidates( i, kinematics, grid, neighbor_voxel );
+    }
+
+    private void addCandidates(int i, CellKinematics kinematics, CellGrid grid, int voxel)
+    {
+        for( int n = grid.getStart( voxel ); n < grid.getEnd( voxel ); n++ )
+        {
+            int j = grid.getSorted( n );
+            if( j == i )
+                continue;
+            double dx = kinematics.x[i] - kinematics.x[j];
+            double dy = kinematics.y[i] - kinematics.y[j];
+            double dz = kinematics.z[i] - kinematics.z[j];
+            double cutoff = Math.max( kinematics.radius[i] + kinematics.radius[j],
+                    kinematics.maxAdhesionDistance[i] + kinematics.maxAdhesionDistance[j] ) + skin;
+            if( dx * dx + dy * dy + dz * dz >= cutoff * cutoff )
+                continue;
+            int[] list = candidates[i];
+            if( list == null )
+                list = candidates[i] = new int[8];
+            else if( candidatesCount[i] == list.length )
+                list = candidates[i] = Arrays.copyOf( list, list.length * 2 );
+            list[candidatesCount[i]++] = j;
+        }
+    }
+}
@@ -147,7 +147,7 @@ public class TestDCIS
         CellContainer.createCellContainer( m, mechanics_voxel_size );
 
         for( int n = 0; n < m.number_of_voxels(); n++ )
-            m.getDensity( n )[0] = o2_conc;
+            m.setDensity( n, 0, o2_conc );
 
         // register substrates properties 
         m.diffusion_coefficients[0] = 1.0e5; // microns^2 / min 
@@ -173,7 +173,7 @@ public class TestHDS
         CellContainer.createCellContainer( microenvironment, mechanics_voxel_size );
 
         for( int n = 0; n < microenvironment.number_of_voxels(); n++ )
-            microenvironment.getDensity( n )[0] = o2_conc;
+            microenvironment.setDensity( n, 0, o2_conc );
 
         // register substrates properties 
         microenvironment.diffusion_coefficients[0] = 1.0e5; // microns^2 / min 
@@ -105,7 +105,7 @@ public class TestVolume
 
         m.setDensity( 0, "oxygen", "mmHg" );
         for( int n = 0; n < m.number_of_voxels(); n++ )
-            m.getDensity( n )[0] = o2Conc;
+            m.setDensity( n, 0, o2Conc );
 
         CellDefinition.clearCellDefinitions();
         CellDefinition cd = StandardModels.createDefaultCellDefinition( "tumor cell", m );
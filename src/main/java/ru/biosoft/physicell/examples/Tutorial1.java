@@ -81,7 +81,7 @@ public class Tutorial1
         {
             double[] displacement = VectorUtil.newDiff( m.voxels( i ).center, center );
             double coeff = VectorUtil.norm_squared( displacement ) / stddevSquared;
-            m.getDensity( i )[0] = Math.exp( coeff );
+            m.setDensity( i, 0, Math.exp( coeff ) );
         }
 
         // register substrates properties 
@@ -134,10 +134,9 @@ public class SimpleVisualizer
         int width = (int) ( xCells * m.mesh.dx );
         int height = (int) ( yCells * m.mesh.dy );
         zCoord = (int) ( zCoord / m.mesh.dz );
-        double[][] p = m.density;
         BufferedImage img = new BufferedImage( width, height, BufferedImage.TYPE_INT_RGB );
         Graphics g = img.getGraphics();
-        drawDensity( xCells, yCells, (int)m.mesh.dx, (int)m.mesh.dy, p, zCoord, g );
+        drawDensity( xCells, yCells, (int)m.mesh.dx, (int)m.mesh.dy, m, zCoord, g );
         drawAgents( m, g );
         drawText( m, time, g );
         ImageIO.write( img, "PNG", new File( fileName ) );
@@ -179,14 +178,14 @@ public class SimpleVisualizer
         }
     }
 
-    private static void drawDensity(int xNumber, int yNumber, int xSize, int ySize, double[][] p, int zCoord, Graphics g)
+    private static void drawDensity(int xNumber, int yNumber, int xSize, int ySize, Microenvironment m, int zCoord, Graphics g)
     {
         for( int i = 0; i < xNumber; i++ )
         {
             for( int j = 0; j < yNumber; j++ )
             {
                 int offset = zCoord * xNumber * yNumber;
-                int red = (int) ( ( 1 - p[offset + i + xNumber * j][0] ) * 255 );
+                int red = (int) ( ( 1 - m.getDensity( offset + i + xNumber * j, 0 ) ) * 255 );
                 g.setColor( new Color( 255, red, red ) );
                 g.fillRect( i * xSize, j * ySize, xSize, ySize );
                 //                g.setColor( Color.black );
@@ -313,7 +313,7 @@ public class Visualizer
                     default: //Z
                         index = i + n1 * j + n * n1 * n2;
                 }
-                red = (int) ( ( 1 - ( m.density[index][0] / maxDensity ) ) * 255 );
+                red = (int) ( ( 1 - ( m.getDensity( index, 0 ) / maxDensity ) ) * 255 );
                 g.setColor( new Color( 255, red, red ) );
                 g.fillRect( i * size1, j * size2, size1, size2 );
             }
@@ -0,0 +1,50 @@
+package ru.biosoft.physicell.biofvm;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ConstantCoefficientsLOD2DTest
+{
+    private static Microenvironment createMicroenvironment(double zNodes)
+    {
+        Microenvironment m = new Microenvironment( "test", "minutes", "microns" );
+        m.setDensity( 0, "oxygen", "mmHg" );
+        m.resizeSpace( 0, 200, 0, 160, 0, 20, 20, 20, zNodes );
+        m.diffusion_coefficients[0] = 1.0e5;
+        m.decay_rates[0] = 0;
+
+        Random random = new Random( 1 );
+        for( int n = 0; n < m.number_of_voxels(); n++ )
+            m.setDensity( n, 0, 38 * random.nextDouble() );
+        return m;
+    }
+
+    @Test
+    public void testSolverSelection()
+    {
+        assertTrue( createMicroenvironment( 20 ).getSolver() instanceof ConstantCoefficientsLOD2D );
+        assertTrue( createMicroenvironment( 10 ).getSolver() instanceof ConstantCoefficientsLOD3D );
+    }
+
+    /**
+     * Without decay z sweep of 3-D solver on a single layer is identity, so both solvers should give the same result
+     */
+    @Test
+    public void testSameAs3DWithoutDecay() throws Exception
+    {
+        Microenvironment m2D = createMicroenvironment( 20 );
+        Microenvironment m3D = createMicroenvironment( 20 );
+        m3D.setSolver( new ConstantCoefficientsLOD3D() );
+        for( int step = 0; step < 10; step++ )
+        {
+            m2D.simulate_diffusion_decay( 0.01 );
+            m3D.simulate_diffusion_decay( 0.01 );
+        }
+        for( int n = 0; n < m2D.number_of_voxels(); n++ )
+            assertArrayEquals( m3D.getDensity( n ), m2D.getDensity( n ), 0.0 );
+    }
+}
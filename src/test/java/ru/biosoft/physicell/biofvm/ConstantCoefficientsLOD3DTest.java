@@ -0,0 +1,81 @@
+package ru.biosoft.physicell.biofvm;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+public class ConstantCoefficientsLOD3DTest
+{
+    private static Microenvironment createMicroenvironment()
+    {
+        Microenvironment m = new Microenvironment( "test", "minutes", "microns" );
+        m.setDensity( 0, "oxygen", "mmHg" );
+        m.addDensity( "factor", "dimensionless", 100, 0.5 );
+        m.resizeSpace( 0, 200, 0, 160, 0, 120, 20, 20, 20 );
+        m.diffusion_coefficients[0] = 1.0e5;
+        m.decay_rates[0] = 0.1;
+
+        Random random = new Random( 1 );
+        for( int n = 0; n < m.number_of_voxels(); n++ )
+        {
+            m.setDensity( n, 0, 38 * random.nextDouble() );
+            m.setDensity( n, 1, random.nextDouble() );
+        }
+        return m;
+    }
+
+    @Test
+    public void testParallelIsIdenticalToSerial() throws Exception
+    {
+        Microenvironment serial = createMicroenvironment();
+        Microenvironment parallel = createMicroenvironment();
+        ForkJoinPool pool = new ForkJoinPool( 4 );
+        try
+        {
+            parallel.setSolver( new ConstantCoefficientsLOD3D( pool ) );
+            for( int step = 0; step < 10; step++ )
+            {
+                serial.simulate_diffusion_decay( 0.01 );
+                parallel.simulate_diffusion_decay( 0.01 );
+            }
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+        for( int n = 0; n < serial.number_of_voxels(); n++ )
+            assertArrayEquals( serial.getDensity( n ), parallel.getDensity( n ), 0.0 );
+    }
+
+    @Test
+    public void testLayoutDoesNotChangeResult() throws Exception
+    {
+        Microenvironment voxelMajor = createMicroenvironment();
+        Microenvironment substrateMajor = createMicroenvironment();
+        substrateMajor.setDensityLayout( DensityStorage.Layout.SUBSTRATE_MAJOR );
+        for( int step = 0; step < 10; step++ )
+        {
+            voxelMajor.simulate_diffusion_decay( 0.01 );
+            substrateMajor.simulate_diffusion_decay( 0.01 );
+        }
+        for( int n = 0; n < voxelMajor.number_of_voxels(); n++ )
+            assertArrayEquals( voxelMajor.getDensity( n ), substrateMajor.getDensity( n ), 0.0 );
+    }
+
+    @Test
+    public void testDiffusionTimeStepMultiple() throws Exception
+    {
+        Microenvironment subcycled = createMicroenvironment();
+        subcycled.set_diffusion_dt_multiple( 1, 2 );
+        Microenvironment reference = createMicroenvironment();
+        for( int step = 0; step < 2; step++ )
+            subcycled.simulate_diffusion_decay( 0.01 );
+        reference.simulate_diffusion_decay( 0.02 );
+        for( int n = 0; n < reference.number_of_voxels(); n++ )
+            assertEquals( reference.getDensity( n, 1 ), subcycled.getDensity( n, 1 ), 0.0 );
+    }
+}
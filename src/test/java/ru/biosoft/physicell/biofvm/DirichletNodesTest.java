@@ -0,0 +1,81 @@
+package ru.biosoft.physicell.biofvm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class DirichletNodesTest
+{
+    @Test
+    public void testFacesFromOptions()
+    {
+        Microenvironment m = new Microenvironment( "test", "minutes", "microns" );
+        m.addDensity( "factor", "dimensionless", 100, 0.5 );
+        m.resizeSpace( 0, 100, 0, 60, 0, 20, 20, 20, 20 ); // 5x3x1
+        m.options.outer_Dirichlet_conditions = true;
+        m.options.Dirichlet_all = new boolean[] {false, false};
+        m.options.Dirichlet_xmin = new boolean[] {true, false};
+        m.options.Dirichlet_xmin_values = new double[] {38, 0};
+        m.options.Dirichlet_ymax = new boolean[] {false, true};
+        m.options.Dirichlet_ymax_values = new double[] {0, 5};
+        m.options.Dirichlet_zmin = new boolean[] {true, true};
+        m.add_dirichlet_faces();
+
+        // 3 voxels on xmin and 5 on ymax sharing one corner, z faces are ignored for 2-D mesh
+        assertEquals( 7, m.number_of_dirichlet_nodes() );
+        int corner = m.voxel_index( 0, 2, 0 );
+        assertTrue( m.get_substrate_dirichlet_activation( 0, corner ) );
+        assertTrue( m.get_substrate_dirichlet_activation( 1, corner ) );
+        int xmin = m.voxel_index( 0, 0, 0 );
+        assertTrue( m.get_substrate_dirichlet_activation( 0, xmin ) );
+        assertFalse( m.get_substrate_dirichlet_activation( 1, xmin ) );
+        assertFalse( m.is_dirichlet_node( m.voxel_index( 2, 1, 0 ) ) );
+
+        m.setDensity( xmin, 1, 3 );
+        m.apply_dirichlet_conditions();
+        assertEquals( 38, m.getDensity( xmin, 0 ), 0.0 );
+        assertEquals( 3, m.getDensity( xmin, 1 ), 0.0 );
+        assertEquals( 38, m.getDensity( corner, 0 ), 0.0 );
+        assertEquals( 5, m.getDensity( corner, 1 ), 0.0 );
+    }
+
+    @Test
+    public void testFacesAppliedAtFirstStep() throws Exception
+    {
+        Microenvironment m = new Microenvironment( "test", "minutes", "microns" );
+        m.resizeSpace( 0, 100, 0, 100, 0, 100, 20, 20, 20 );
+        m.options.outer_Dirichlet_conditions = true;
+        m.options.Dirichlet_activation_vector[0] = true;
+        m.options.Dirichlet_condition_vector[0] = 7;
+        m.simulate_diffusion_decay( 0.01 );
+
+        // all boundary voxels of 5x5x5 mesh are registered and get condition value
+        assertEquals( 125 - 27, m.number_of_dirichlet_nodes() );
+        int corner = m.voxel_index( 4, 4, 0 );
+        assertTrue( m.get_substrate_dirichlet_activation( 0, corner ) );
+        assertEquals( 7, m.getDensity( corner, 0 ), 0.0 );
+        assertFalse( m.is_dirichlet_node( m.voxel_index( 2, 2, 2 ) ) );
+    }
+
+    @Test
+    public void testRemove()
+    {
+        DirichletNodes nodes = new DirichletNodes( 10, 2 );
+        boolean[] active = new boolean[] {true, true};
+        nodes.add( 1, new double[] {1, 2}, active );
+        nodes.add( 5, new double[] {3, 4}, active );
+        nodes.add( 7, new double[] {5, 6}, active );
+        nodes.remove( 1 );
+        assertEquals( 2, nodes.size() );
+        assertFalse( nodes.contains( 1 ) );
+        assertEquals( 5, nodes.getValue( 7, 0 ), 0.0 );
+        assertEquals( 4, nodes.getValue( 5, 1 ), 0.0 );
+
+        nodes.resizeSubstrates( 3, 1.0, false );
+        assertEquals( 6, nodes.getValue( 7, 1 ), 0.0 );
+        assertEquals( 1, nodes.getValue( 7, 2 ), 0.0 );
+        assertFalse( nodes.isActive( 7, 2 ) );
+    }
+}
@@ -0,0 +1,93 @@
+package ru.biosoft.physicell.biofvm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class QuasiSteadyStateTest
+{
+    @Test
+    public void testSkipping() throws Exception
+    {
+        Microenvironment m = new Microenvironment( "test", "minutes", "microns" );
+        m.resizeSpace( 0, 100, 0, 100, 0, 100, 20, 20, 20 );
+        m.diffusion_coefficients[0] = 1.0e3;
+        for( int n = 0; n < m.number_of_voxels(); n++ )
+            m.setDensity( n, 0, 10 );
+
+        QuasiSteadyState steadyState = new QuasiSteadyState( 1e-10, 2, 5 );
+        m.setQuasiSteadyState( steadyState );
+        for( int step = 0; step < 10; step++ )
+        {
+            m.simulate_cell_sources_and_sinks( 0.01 );
+            m.simulate_diffusion_decay( 0.01 );
+        }
+        // uniform field without decay is steady: 2 steps to detect, then 5 skipped, 1 solved, 2 skipped
+        assertTrue( steadyState.isSteady() );
+        assertEquals( 3, steadyState.getSolvedCount() );
+        assertEquals( 7, steadyState.getSkippedCount() );
+
+        m.markSourcesChanged();
+        m.simulate_diffusion_decay( 0.01 );
+        assertEquals( 4, steadyState.getSolvedCount() );
+        assertFalse( steadyState.isSteady() );
+
+        m.setDensity( 0, 0, 20 );
+        m.simulate_diffusion_decay( 0.01 );
+        m.simulate_diffusion_decay( 0.01 );
+        assertTrue( steadyState.getMaxChange()[0] > 1e-10 );
+        assertFalse( steadyState.isSteady() );
+    }
+
+    @Test
+    public void testAgentSources() throws Exception
+    {
+        Microenvironment m = new Microenvironment( "test", "minutes", "microns" );
+        m.resizeSpace( 0, 100, 0, 100, 0, 100, 20, 20, 20 );
+        for( int n = 0; n < m.number_of_voxels(); n++ )
+            m.setDensity( n, 0, 10 );
+        double dt = 0.01;
+        BasicAgent agent = new BasicAgent( m );
+        agent.assignPosition( 50, 50, 50 );
+        agent.setTotalVolume( 2500 );
+        agent.secretionRates = new double[] {0};
+        agent.saturationDensities = new double[] {0};
+        agent.uptakeRates = new double[] {1e-4};
+        agent.netExportRates = new double[] {0};
+        agent.setUptakeConstants( dt );
+        int voxel = agent.currentVoxelIndex;
+
+        // uptake changes field slower than tolerance, so sources and sinks are skipped together with diffusion
+        QuasiSteadyState steadyState = new QuasiSteadyState( 1e-3, 2, 100 );
+        m.setQuasiSteadyState( steadyState );
+        for( int step = 0; step < 5; step++ )
+        {
+            m.simulate_cell_sources_and_sinks( dt );
+            m.simulate_diffusion_decay( dt );
+        }
+        assertTrue( steadyState.isSteady() );
+        double density = m.getDensity( voxel, 0 );
+        assertTrue( density < 10 );
+        long skipped = steadyState.getSkippedCount();
+        for( int step = 0; step < 10; step++ )
+        {
+            m.simulate_cell_sources_and_sinks( dt );
+            m.simulate_diffusion_decay( dt );
+            assertEquals( density, m.getDensity( voxel, 0 ), 0.0 );
+        }
+        assertEquals( skipped + 10, steadyState.getSkippedCount() );
+
+        // recomputing the same constants keeps skipping, significant change of uptake forces the next step to be solved
+        agent.setUptakeConstants( dt );
+        m.simulate_cell_sources_and_sinks( dt );
+        m.simulate_diffusion_decay( dt );
+        assertEquals( skipped + 11, steadyState.getSkippedCount() );
+        agent.uptakeRates[0] = 1e-2;
+        agent.setUptakeConstants( dt );
+        m.simulate_cell_sources_and_sinks( dt );
+        m.simulate_diffusion_decay( dt );
+        assertTrue( m.getDensity( voxel, 0 ) < density );
+    }
+}
@@ -0,0 +1,528 @@
+package ru.biosoft.physicell.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+import ru.biosoft.physicell.biofvm.CartesianMesh;
+import ru.biosoft.physicell.biofvm.Microenvironment;
+import ru.biosoft.physicell.biofvm.VectorUtil;
+
+public class CellContainerTest
+{
+    private static Microenvironment createMicroenvironment()
+    {
+        Microenvironment m = new Microenvironment( "substrate scale", 300, 20, "minutes", "microns" );
+        m.setDensity( 0, "oxygen", "mmHg" );
+        CellContainer.createCellContainer( m, 30 );
+        return m;
+    }
+
+    private static CellDefinition createDefinition(Microenvironment m) throws Exception
+    {
+        CellDefinition.clearCellDefinitions();
+        CellDefinition cd = StandardModels.createDefaultCellDefinition( "tumor cell", m );
+        CellDefinition.registerCellDefinition( cd );
+        cd.functions.updatePhenotype = null;
+        cd.functions.updateVolume = null;
+        return cd;
+    }
+
+    private static List<Cell> createCells(Microenvironment m, CellDefinition cd, int count)
+    {
+        Random random = new Random( 1 );
+        List<Cell> cells = new ArrayList<>();
+        for( int i = 0; i < count; i++ )
+            cells.add( Cell.createCell( cd, m, new double[] {100 + 60 * random.nextDouble(), 100 + 60 * random.nextDouble(),
+                    100 + 60 * random.nextDouble()} ) );
+        return cells;
+    }
+
+    @Test
+    public void testGrid() throws Exception
+    {
+        Microenvironment m = createMicroenvironment();
+        CellDefinition cd = createDefinition( m );
+        CellContainer container = (CellContainer)m.agentContainer;
+
+        Cell c1 = Cell.createCell( cd, m, new double[] {45, 45, 45} );
+        Cell c2 = Cell.createCell( cd, m, new double[] {50, 50, 50} );
+        Cell c3 = Cell.createCell( cd, m, new double[] {200, 200, 200} );
+
+        CellGrid grid = container.get_grid();
+        int v1 = c1.get_current_mechanics_voxel_index();
+        int v3 = c3.get_current_mechanics_voxel_index();
+        assertEquals( v1, c2.get_current_mechanics_voxel_index() );
+        assertEquals( 2, grid.getEnd( v1 ) - grid.getStart( v1 ) );
+        assertSame( c1, grid.getCell( grid.getSorted( grid.getStart( v1 ) ) ) );
+        assertSame( c2, grid.getCell( grid.getSorted( grid.getStart( v1 ) + 1 ) ) );
+        assertEquals( 1, grid.getEnd( v3 ) - grid.getStart( v3 ) );
+        assertFalse( grid.isOutdated() );
+
+        // moving cell to other voxel invalidates grid
+        c2.assignPosition( 205, 205, 205 );
+        assertTrue( grid.isOutdated() );
+        assertEquals( v3, c2.get_current_mechanics_voxel_index() );
+        container.get_grid();
+        assertEquals( 1, grid.getEnd( v1 ) - grid.getStart( v1 ) );
+        assertEquals( 2, grid.getEnd( v3 ) - grid.getStart( v3 ) );
+
+        // removed cells are not in the grid
+        c1.die();
+        assertFalse( container.contain_any_cell( v1 ) );
+        assertEquals( 2, container.get_grid().getCellsCount() );
+    }
+
+    @Test
+    public void testKinematics() throws Exception
+    {
+        Microenvironment m = createMicroenvironment();
+        CellDefinition cd = createDefinition( m );
+        CellContainer container = (CellContainer)m.agentContainer;
+        List<Cell> cells = createCells( m, cd, 50 );
+
+        // object-based pair forces (kinematics is not loaded outside of container update)
+        List<double[]> velocities = new ArrayList<>();
+        List<Double> pressures = new ArrayList<>();
+        List<Integer> neighbors = new ArrayList<>();
+        for( Cell cell : cells )
+        {
+            cell.functions.updateVelocity.execute( cell, cell.phenotype, 0.1 );
+            velocities.add( cell.velocity.clone() );
+            pressures.add( cell.state.simple_pressure );
+            neighbors.add( cell.state.neighbors.size() );
+            cell.velocity = new double[3];
+        }
+        assertTrue( neighbors.stream().anyMatch( n -> n > 0 ) );
+
+        container.kinematics.load( container.get_grid(), null );
+        for( int i = 0; i < cells.size(); i++ )
+        {
+            Cell cell = cells.get( i );
+            cell.functions.updateVelocity.execute( cell, cell.phenotype, 0.1 );
+            assertArrayEquals( velocities.get( i ), cell.velocity, 0.0 );
+            assertEquals( pressures.get( i ), cell.state.simple_pressure, 0.0 );
+            assertEquals( neighbors.get( i ).intValue(), cell.state.neighbors.size() );
+        }
+        container.kinematics.unload();
+        assertEquals( -1, container.kinematics.indexOf( cells.get( 0 ) ) );
+    }
+
+    @Test
+    public void testSymmetricMechanics() throws Exception
+    {
+        Microenvironment m = createMicroenvironment();
+        CellDefinition cd = createDefinition( m );
+        CellContainer container = (CellContainer)m.agentContainer;
+        List<Cell> cells = createCells( m, cd, 100 );
+
+        List<double[]> velocities = new ArrayList<>();
+        List<Double> pressures = new ArrayList<>();
+        List<Set<Cell>> neighbors = new ArrayList<>();
+        container.kinematics.load( container.get_grid(), null );
+        for( Cell cell : cells )
+        {
+            cell.functions.updateVelocity.execute( cell, cell.phenotype, 0.1 );
+            velocities.add( cell.velocity.clone() );
+            pressures.add( cell.state.simple_pressure );
+            neighbors.add( new HashSet<>( cell.state.neighbors ) );
+            cell.velocity = new double[3];
+        }
+        container.kinematics.unload();
+
+        ForkJoinPool pool = new ForkJoinPool( 4 );
+        List<double[]> serial = new ArrayList<>();
+        for( ForkJoinPool p : new ForkJoinPool[] {null, pool} )
+        {
+            container.kinematics.load( container.get_grid(), p );
+            container.compute_symmetric_pair_forces( p );
+            for( int i = 0; i < cells.size(); i++ )
+            {
+                Cell cell = cells.get( i );
+                cell.functions.updateVelocity.execute( cell, cell.phenotype, 0.1 );
+                assertArrayEquals( velocities.get( i ), cell.velocity, 1e-12 );
+                assertEquals( pressures.get( i ), cell.state.simple_pressure, 1e-12 );
+                assertEquals( neighbors.get( i ), cell.state.neighbors );
+                if( p == null )
+                    serial.add( cell.velocity );
+                else
+                    assertArrayEquals( serial.get( i ), cell.velocity, 0.0 );
+                cell.velocity = new double[3];
+            }
+            container.kinematics.unload();
+        }
+        pool.shutdown();
+    }
+
+    @Test
+    public void testVerletLists() throws Exception
+    {
+        Microenvironment m = createMicroenvironment();
+        CellDefinition cd = createDefinition( m );
+        CellContainer container = (CellContainer)m.agentContainer;
+        List<Cell> cells = createCells( m, cd, 100 );
+
+        List<double[]> velocities = new ArrayList<>();
+        List<Set<Cell>> neighbors = new ArrayList<>();
+        container.kinematics.load( container.get_grid(), null );
+        for( Cell cell : cells )
+        {
+            cell.functions.updateVelocity.execute( cell, cell.phenotype, 0.1 );
+            velocities.add( cell.velocity.clone() );
+            neighbors.add( new HashSet<>( cell.state.neighbors ) );
+            cell.velocity = new double[3];
+        }
+        container.kinematics.unload();
+
+        container.setVerletSkin( 5 );
+        VerletLists lists = container.getVerletLists();
+        container.kinematics.load( container.get_grid(), null );
+        lists.update( container.kinematics, container.get_grid(), container.underlying_mesh, null );
+        assertEquals( 1, lists.getRebuildCount() );
+        for( int i = 0; i < cells.size(); i++ )
+        {
+            Cell cell = cells.get( i );
+            cell.functions.updateVelocity.execute( cell, cell.phenotype, 0.1 );
+            assertArrayEquals( velocities.get( i ), cell.velocity, 1e-12 );
+            assertEquals( neighbors.get( i ), cell.state.neighbors );
+            cell.velocity = new double[3];
+        }
+        lists.invalidate();
+        container.kinematics.unload();
+
+        // small displacement keeps lists
+        cells.get( 0 ).position[0] += 1;
+        container.kinematics.load( container.get_grid(), null );
+        lists.update( container.kinematics, container.get_grid(), container.underlying_mesh, null );
+        assertEquals( 1, lists.getRebuildCount() );
+        assertEquals( 2, lists.getUpdateCount() );
+        container.kinematics.unload();
+
+        // displacement larger than half of the skin
+        cells.get( 0 ).position[0] += 2;
+        container.kinematics.load( container.get_grid(), null );
+        lists.update( container.kinematics, container.get_grid(), container.underlying_mesh, null );
+        assertEquals( 2, lists.getRebuildCount() );
+        container.kinematics.unload();
+    }
+
+    @Test
+    public void testNeighborVoxelStencil() throws Exception
+    {
+        Microenvironment m = createMicroenvironment();
+        CellDefinition cd = createDefinition( m );
+        CellContainer container = (CellContainer)m.agentContainer;
+        CartesianMesh mesh = container.underlying_mesh;
+        Random random = new Random( 2 );
+        int accepted = 0;
+        int checked = 0;
+        for( int c = 0; c < 200; c++ )
+        {
+            Cell cell = Cell.createCell( cd, m, new double[] {300 * random.nextDouble(), 300 * random.nextDouble(), 300 * random.nextDouble()} );
+            int voxel = cell.get_current_mechanics_voxel_index();
+            int[] neighbors = mesh.moore_connected_voxel_indices[voxel];
+            for( int n = 0; n < neighbors.length; n++ )
+            {
+                boolean expected = Cell.is_neighbor_voxel( cell, mesh.voxels[voxel].center, mesh.voxels[neighbors[n]].center, neighbors[n] );
+                assertEquals( expected, Cell.is_neighbor_voxel( cell, voxel, n ) );
+                accepted += expected ? 1 : 0;
+                checked++;
+            }
+        }
+        assertTrue( accepted > 0 && accepted < checked );
+        assertEquals( 1, CartesianMesh.OFFSET_TYPE[0 + 3 * 1 + 9 * 1] );
+        assertEquals( 2, CartesianMesh.OFFSET_TYPE[2 + 3 * 0 + 9 * 1] );
+        assertEquals( 3, CartesianMesh.OFFSET_TYPE[2 + 3 * 2 + 9 * 0] );
+    }
+
+    @Test
+    public void testMaxInteractiveDistance() throws Exception
+    {
+        Microenvironment m = createMicroenvironment();
+        CellDefinition cd = createDefinition( m );
+        CellContainer container = (CellContainer)m.agentContainer;
+        Cell small = Cell.createCell( cd, m, new double[] {45, 45, 45} );
+        Cell large = Cell.createCell( cd, m, new double[] {50, 50, 50} );
+        double smallDistance = small.phenotype.geometry.radius * small.phenotype.mechanics.relative_maximum_adhesion_distance;
+        large.setTotalVolume( 8 * large.phenotype.volume.total );
+        int voxel = large.get_current_mechanics_voxel_index();
+        assertTrue( container.max_cell_interactive_distance_in_voxel[voxel] > 1.5 * smallDistance );
+
+        // large cell left the voxel
+        large.die();
+        container.kinematics.load( container.get_grid(), null );
+        container.update_max_cell_interactive_distance( null );
+        container.kinematics.unload();
+        assertEquals( smallDistance, container.max_cell_interactive_distance_in_voxel[voxel], 1e-12 );
+        assertEquals( 0.0, container.max_cell_interactive_distance_in_voxel[0], 0.0 );
+    }
+
+    @Test
+    public void testAdaptiveMechanicsStep() throws Exception
+    {
+        AdaptiveMechanicsStep step = new AdaptiveMechanicsStep( 0.1, 10, 4 );
+        step.setLog( false );
+        assertEquals( 1, step.substeps( 1.0, 10, 0.5, 0 ) );
+        assertEquals( 3, step.substeps( 5.0, 10, 0.5, 0 ) );
+        step.chooseNext( 0.1, 0 );
+        assertEquals( 2, step.getMultiple() );
+        step.substeps( 0.0, 10, 0.1, 0 );
+        step.chooseNext( 0.1, 0 );
+        assertEquals( 10, step.getMultiple() );
+
+        // two overlapping cells are pushed apart, steps grow when they separate
+        Microenvironment m = createMicroenvironment();
+        CellDefinition cd = createDefinition( m );
+        cd.phenotype.cycle = StandardModels.Ki67_advanced;
+        cd.phenotype.death.rates.set( 0, 0.0 );
+        cd.phenotype.motility.is_motile = false;
+        CellContainer container = (CellContainer)m.agentContainer;
+        Cell c1 = Cell.createCell( cd, m, new double[] {145, 150, 150} );
+        Cell c2 = Cell.createCell( cd, m, new double[] {155, 150, 150} );
+        step = new AdaptiveMechanicsStep( 0.01, 10, 20 );
+        step.setLog( false );
+        container.setAdaptiveMechanicsStep( step );
+        double dt = 0.01;
+        for( int i = 0; i < 3000; i++ )
+            container.updateAllCells( m, i * dt, 6, 0.1, dt );
+        assertTrue( step.getSubcycledCount() > 0 );
+        assertTrue( step.getStepsCount() < 300 );
+        assertEquals( 10, step.getMultiple() );
+        assertTrue( c2.position[0] - c1.position[0] > 15.5 );
+    }
+
+    @Test
+    public void testSleepingCells() throws Exception
+    {
+        Microenvironment m = createMicroenvironment();
+        CellDefinition cd = createDefinition( m );
+        cd.phenotype.cycle = StandardModels.Ki67_advanced;
+        cd.phenotype.death.rates.set( 0, 0.0 );
+        cd.phenotype.motility.is_motile = false;
+        CellContainer container = (CellContainer)m.agentContainer;
+        Cell c1 = Cell.createCell( cd, m, new double[] {140, 150, 150} );
+        Cell c2 = Cell.createCell( cd, m, new double[] {155, 150, 150} );
+        Cell c3 = Cell.createCell( cd, m, new double[] {170, 150, 150} );
+        SleepingCells sleeping = new SleepingCells( 1e-3, 5 );
+        container.setSleepingCells( sleeping );
+        double dt = 0.1;
+        int step = 0;
+        for( ; step < 2000; step++ )
+            container.updateAllCells( m, step * dt, 6, 0.1, dt );
+        assertEquals( 1.0, sleeping.getSleepingFraction(), 0.0 );
+        assertTrue( c1.state.asleep && c2.state.asleep && c3.state.asleep );
+
+        // sleeping cells do not move
+        double[] position = c2.position.clone();
+        container.updateAllCells( m, step++ * dt, 6, 0.1, dt );
+        assertArrayEquals( position, c2.position, 0.0 );
+
+        // volume change wakes the cell, it pushes neighbors and wakes them
+        c2.setTotalVolume( 2 * c2.phenotype.volume.total );
+        container.updateAllCells( m, step++ * dt, 6, 0.1, dt );
+        assertFalse( c2.state.asleep );
+        assertFalse( c1.state.asleep );
+        assertEquals( 0.0, sleeping.getSleepingFraction(), 0.0 );
+
+        for( int i = 0; i < 2000; i++ )
+            container.updateAllCells( m, step++ * dt, 6, 0.1, dt );
+        assertTrue( c3.state.asleep );
+        c2.die();
+        assertFalse( c1.state.asleep );
+        assertFalse( c3.state.asleep );
+
+        // non-adhesive cell at rest enters interaction range of sleeping cell and wakes it
+        for( int i = 0; i < 2000; i++ )
+            container.updateAllCells( m, step++ * dt, 6, 0.1, dt );
+        assertTrue( c3.state.asleep );
+        Cell c4 = Cell.createCell( cd, m, new double[] {c3.position[0] + 18, c3.position[1], c3.position[2]} );
+        c4.phenotype.mechanics.cell_cell_adhesion_strength = 0;
+        container.updateAllCells( m, step++ * dt, 6, 0.1, dt );
+        assertTrue( c4.state.neighbors.contains( c3 ) );
+        assertFalse( c3.state.asleep );
+    }
+
+    @Test
+    public void testSleepingAttachedCells() throws Exception
+    {
+        Microenvironment m = createMicroenvironment();
+        CellDefinition cd = createDefinition( m );
+        cd.phenotype.cycle = StandardModels.Ki67_advanced;
+        cd.phenotype.death.rates.set( 0, 0.0 );
+        cd.phenotype.motility.is_motile = false;
+        cd.functions.contact_function = (c1, p1, c2, p2) -> StandardModels.standard_elastic_contact_function( c1, p1, c2, p2, 0 );
+        CellContainer container = (CellContainer)m.agentContainer;
+        Cell c1 = Cell.createCell( cd, m, new double[] {140, 150, 150} );
+        Cell c2 = Cell.createCell( cd, m, new double[] {160, 150, 150} );
+        c1.attach_cells( c1, c2 );
+        SleepingCells sleeping = new SleepingCells( 1e-3, 5 );
+        container.setSleepingCells( sleeping );
+        double dt = 0.1;
+        int step = 0;
+        for( ; step < 2000; step++ )
+            container.updateAllCells( m, step * dt, 6, 0.1, dt );
+        assertTrue( c1.state.asleep && c2.state.asleep );
+
+        // contact forces are not accumulated by sleeping cells, so they do not jump when woken
+        for( int i = 0; i < 100; i++ )
+            container.updateAllCells( m, step++ * dt, 6, 0.1, dt );
+        assertEquals( 0.0, VectorUtil.norm( c1.velocity ), 0.0 );
+        double[] position = c1.position.clone();
+        sleeping.wake( c1 );
+        container.updateAllCells( m, step++ * dt, 6, 0.1, dt );
+        assertTrue( VectorUtil.dist( position, c1.position ) < 1e-2 );
+    }
+
+    @Test
+    public void testSpringAttachments() throws Exception
+    {
+        Microenvironment m = createMicroenvironment();
+        CellDefinition cd = createDefinition( m );
+        CellContainer container = (CellContainer)m.agentContainer;
+        List<Cell> cells = createCells( m, cd, 50 );
+        Cell c1 = cells.get( 0 );
+        Cell c2 = cells.get( 1 );
+        Cell c3 = cells.get( 2 );
+
+        Cell.attach_cells_as_spring( c1, c2 );
+        Cell.attach_cells_as_spring( c1, c3 );
+        Cell.attach_cells_as_spring( c1, c3 );
+        assertEquals( 2, c1.state.spring_attachments.size() );
+        assertSame( c1, c3.state.spring_attachments.get( 0 ) );
+
+        // all attachments are detached, lists are modified only when changes are applied
+        AttachmentChanges changes = new AttachmentChanges();
+        c1.phenotype.mechanics.detachment_rate = 100;
+        c1.phenotype.mechanics.attachment_rate = 0;
+        StandardModels.dynamic_spring_attachments( c1, c1.phenotype, 0.1, changes );
+        assertEquals( 2, c1.state.spring_attachments.size() );
+        changes.apply();
+        assertEquals( 0, c1.state.spring_attachments.size() );
+        assertEquals( 0, c2.state.spring_attachments.size() );
+        assertEquals( 0, c3.state.spring_attachments.size() );
+
+        // new attachments respect maximum number of attachments of both cells
+        for( Cell cell : cells )
+        {
+            cell.phenotype.mechanics.detachment_rate = 0;
+            cell.phenotype.mechanics.attachment_rate = 100;
+            cell.phenotype.mechanics.maximum_number_of_attachments = 1;
+        }
+        c1.state.neighbors.add( c2 );
+        c1.state.neighbors.add( c3 );
+        c2.state.neighbors.add( c1 );
+        c3.state.neighbors.add( c1 );
+        for( Cell cell : new Cell[] {c1, c2, c3} )
+            StandardModels.dynamic_spring_attachments( cell, cell.phenotype, 0.1, changes );
+        changes.apply();
+        assertEquals( 1, c1.state.spring_attachments.size() );
+        assertEquals( 1, c2.state.spring_attachments.size() + c3.state.spring_attachments.size() );
+
+        // spring forces computed in parallel are the same as serial
+        for( Cell cell : cells )
+        {
+            cell.phenotype.mechanics.maximum_number_of_attachments = 12;
+            cell.phenotype.mechanics.attachment_elastic_constant = 0.01;
+        }
+        Random random = new Random( 2 );
+        for( int i = 0; i < 200; i++ )
+            Cell.attach_cells_as_spring( cells.get( random.nextInt( 50 ) ), cells.get( random.nextInt( 50 ) ) );
+        ForkJoinPool pool = new ForkJoinPool( 4 );
+        List<double[]> serial = new ArrayList<>();
+        for( ForkJoinPool p : new ForkJoinPool[] {null, pool} )
+        {
+            m.setPool( p );
+            container.add_spring_forces( m, 0.1 );
+            for( int i = 0; i < cells.size(); i++ )
+            {
+                Cell cell = cells.get( i );
+                if( p == null )
+                    serial.add( cell.velocity );
+                else
+                    assertArrayEquals( serial.get( i ), cell.velocity, 0.0 );
+                cell.velocity = new double[3];
+            }
+        }
+        assertTrue( VectorUtil.norm( serial.get( 0 ) ) > 0 );
+        m.setPool( null );
+        pool.shutdown();
+    }
+
+    @Test
+    public void testCellInteractionEvents() throws Exception
+    {
+        Microenvironment m = createMicroenvironment();
+        CellDefinition cd = createDefinition( m );
+        Cell p1 = Cell.createCell( cd, m, new double[] {140, 150, 150} );
+        Cell p2 = Cell.createCell( cd, m, new double[] {160, 150, 150} );
+        Cell prey = Cell.createCell( cd, m, new double[] {150, 150, 150} );
+        for( Cell predator : new Cell[] {p1, p2} )
+        {
+            predator.phenotype.cell_interactions.live_phagocytosis_rates[prey.type] = 1e6;
+            predator.state.neighbors.add( prey );
+        }
+        assertEquals( 1e6, p1.phenotype.cell_interactions.live_phagocytosis_rate( prey.type_name ), 0.0 );
+        assertEquals( 1e6, p1.phenotype.cell_interactions.live_phagocytosis_rate( prey.type ), 0.0 );
+        assertEquals( p1.phenotype.mechanics.cell_adhesion_affinity( prey.type_name ), p1.phenotype.mechanics.cell_adhesion_affinity( prey.type ),
+                0.0 );
+        double volume = p1.phenotype.volume.total;
+        double preyVolume = prey.phenotype.volume.total;
+
+        // both predators propose to ingest the prey, state is not changed until commit
+        CellInteractionEvents events = new CellInteractionEvents();
+        events.begin( m.getAgents().size() );
+        StandardModels.standard_cell_cell_interactions( p2, p2.phenotype, 0.1, events );
+        StandardModels.standard_cell_cell_interactions( p1, p1.phenotype, 0.1, events );
+        assertEquals( preyVolume, prey.phenotype.volume.total, 0.0 );
+        assertFalse( prey.phenotype.death.dead );
+
+        // predator with lower ID wins
+        events.commit( m.getAgents(), 0.1 );
+        assertEquals( 2, events.getProposedCount() );
+        assertTrue( prey.phenotype.death.dead );
+        assertEquals( 0.0, prey.phenotype.volume.total, 0.0 );
+        assertEquals( volume + preyVolume, p1.phenotype.volume.total, 1e-9 );
+        assertEquals( volume, p2.phenotype.volume.total, 0.0 );
+    }
+
+    @Test
+    public void testEventDrivenTransitions() throws Exception
+    {
+        Microenvironment m = createMicroenvironment();
+        CellDefinition cd = createDefinition( m );
+        cd.phenotype.death.rates.set( 0, 0.01 );
+        cd.phenotype.death.rates.set( 1, 0.0 );
+        CellContainer container = (CellContainer)m.agentContainer;
+        container.setEventDrivenTransitions( true );
+        List<Cell> cells = createCells( m, cd, 2000 );
+
+        // fraction of dead cells is 1 - exp(-rate * t)
+        int dead = 0;
+        for( int step = 0; step < 50; step++ )
+        {
+            for( Cell cell : cells )
+            {
+                if( cell.phenotype.death.check_for_death( cell, 1.0 ) )
+                    dead++;
+            }
+        }
+        assertEquals( 1 - Math.exp( -0.5 ), (double)dead / cells.size(), 0.04 );
+
+        // change of the rate is taken into account without resampling
+        for( Cell cell : cells )
+            cell.phenotype.death.rates.set( 0, 0.0 );
+        for( Cell cell : cells )
+            assertFalse( cell.phenotype.death.check_for_death( cell, 1e6 ) );
+    }
+}
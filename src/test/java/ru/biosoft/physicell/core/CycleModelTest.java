@@ -0,0 +1,74 @@
+package ru.biosoft.physicell.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+public class CycleModelTest
+{
+    @Test
+    public void testRateTables() throws Exception
+    {
+        CycleModel model = new CycleModel();
+        model.add_phase( PhysiCellConstants.Ki67_negative, "Ki67-" );
+        model.add_phase( PhysiCellConstants.Ki67_positive, "Ki67+" );
+        model.add_phase_link( 0, 1, 0.1, null );
+        model.add_phase_link( 1, 0, 0.2, null );
+
+        // adding links keeps existing rates
+        model.add_phase_link( 0, 0, 0.3, null );
+        CycleData data = model.data;
+        assertEquals( 0.1, data.getTransitionRate( 0, 1 ), 0.0 );
+        assertEquals( 0.3, data.getRate( 0, 1 ), 0.0 );
+        assertEquals( 0.2, data.getRate( 1, 0 ), 0.0 );
+
+        // list views are backed by rate tables
+        assertEquals( 2, data.transitionRates.get( 0 ).size() );
+        assertEquals( 0.2, data.transitionRates.get( 1 ).get( 0 ), 0.0 );
+        data.transitionRates.get( 1 ).set( 0, 0.5 );
+        assertEquals( 0.5, data.getRate( 1, 0 ), 0.0 );
+        assertEquals( 0.2, data.basicRates.get( 1 ).get( 0 ), 0.0 );
+
+        // modified rate is relative to basic rate, clone keeps basic rates
+        data.modifyTransitionRate( 0, 1, 2 );
+        data.modifyTransitionRate( 0, 1, 3 );
+        assertEquals( 0.3, data.getTransitionRate( 0, 1 ), 1e-15 );
+        CycleModel clone = model.clone();
+        assertEquals( 0.1, clone.data.getBasicRate( 0, 0 ), 0.0 );
+        clone.data.setTransitionRate( 0, 1, 1.0 );
+        assertEquals( 0.3, data.getTransitionRate( 0, 1 ), 1e-15 );
+
+        // missing link is reported with both phases
+        model.add_phase( PhysiCellConstants.apoptotic, "Apoptotic" );
+        try
+        {
+            data.getTransitionRate( 0, 2 );
+            fail( "Missing link should not be accessible" );
+        }
+        catch( IllegalArgumentException e )
+        {
+            assertTrue( e.getMessage().contains( "Ki67-" ) && e.getMessage().contains( "Apoptotic" ) );
+        }
+        try
+        {
+            model.phase_link( 2, 0 );
+            fail( "Missing link should not be accessible" );
+        }
+        catch( IllegalArgumentException e )
+        {
+            assertTrue( e.getMessage().contains( "Ki67-" ) && e.getMessage().contains( "Apoptotic" ) );
+        }
+
+        Death death = new Death();
+        death.add_death_model( 0.01, model );
+        death.add_death_model( 0.02, model );
+        death.rates.set( 1, 0.03 );
+        assertEquals( 0.03, death.getRate( 1 ), 0.0 );
+        Death deathClone = death.clone();
+        deathClone.setRate( 0, 0.5 );
+        assertEquals( 0.01, death.rates.get( 0 ), 0.0 );
+        assertEquals( 0.5, deathClone.rates.get( 0 ), 0.0 );
+    }
+}
@@ -1,7 +1,20 @@
 package ru.biosoft.physicell.core;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
 import org.junit.Test;
 
+import ru.biosoft.physicell.biofvm.AgentRegistry;
+import ru.biosoft.physicell.biofvm.BasicAgent;
 import ru.biosoft.physicell.biofvm.Microenvironment;
 
 public class MicroenvironmentTest
@@ -24,4 +37,147 @@ public class MicroenvironmentTest
         assert ( m.number_of_voxels() == 1000 );
         assert ( m.get( 0 ).length == 2 );
     }
+
+    @Test
+    public void testGradient() throws Exception
+    {
+        //Linear field along x on 5x5x5 mesh
+        Microenvironment m = new Microenvironment( "substrate scale", 100, 20, "minutes", "microns" );
+        for( int n = 0; n < m.number_of_voxels(); n++ )
+            m.setDensity( n, 0, 2 * m.voxels( n ).center[0] );
+
+        //gradients are not computed unless requested
+        assertArrayEquals( new double[3], m.gradient_vector( 0 )[0], 0.0 );
+
+        m.options.calculate_gradients = true;
+        int n = m.mesh.nearest_voxel_index( new double[] {50, 50, 50} );
+        assertArrayEquals( new double[] {2, 0, 0}, m.gradient_vector( n )[0], 1e-12 );
+        assertArrayEquals( new double[] {2, 0, 0}, m.gradient_vector( 0 )[0], 1e-12 );
+
+        //cache is invalidated after diffusion step
+        for( int i = 0; i < m.number_of_voxels(); i++ )
+            m.setDensity( i, 0, 3 * m.voxels( i ).center[1] );
+        m.simulate_diffusion_decay( 0.01 );
+        assertArrayEquals( new double[] {0, 3, 0}, m.gradient_vector( n )[0], 1e-9 );
+    }
+
+    private static List<BasicAgent> createAgents(Microenvironment m) throws Exception
+    {
+        m.options.track_internalized_substrates_in_each_agent = true;
+        Random random = new Random( 1 );
+        List<BasicAgent> agents = new ArrayList<>();
+        for( int i = 0; i < 500; i++ )
+        {
+            BasicAgent agent = new BasicAgent( m );
+            agent.assignPosition( 100 * random.nextDouble(), 100 * random.nextDouble(), 100 * random.nextDouble() );
+            agent.secretionRates = new double[] {random.nextDouble()};
+            agent.saturationDensities = new double[] {10 * random.nextDouble()};
+            agent.uptakeRates = new double[] {random.nextDouble()};
+            agent.netExportRates = new double[] {random.nextDouble()};
+            agent.setUptakeConstants( 0.01 );
+            agents.add( agent );
+        }
+        return agents;
+    }
+
+    @Test
+    public void testParallelSourcesAndSinks() throws Exception
+    {
+        Microenvironment serial = new Microenvironment( "substrate scale", 100, 20, "minutes", "microns" );
+        Microenvironment parallel = new Microenvironment( "substrate scale", 100, 20, "minutes", "microns" );
+        List<BasicAgent> serialAgents = createAgents( serial );
+        List<BasicAgent> parallelAgents = createAgents( parallel );
+        ForkJoinPool pool = new ForkJoinPool( 4 );
+        try
+        {
+            parallel.setPool( pool );
+            for( int step = 0; step < 10; step++ )
+            {
+                serial.apply_sources_and_sinks( serialAgents, 0.01 );
+                parallel.apply_sources_and_sinks( parallelAgents, 0.01 );
+            }
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+        for( int n = 0; n < serial.number_of_voxels(); n++ )
+            assertArrayEquals( serial.getDensity( n ), parallel.getDensity( n ), 0.0 );
+        for( int i = 0; i < serialAgents.size(); i++ )
+            assertArrayEquals( serialAgents.get( i ).internalizedSubstrates, parallelAgents.get( i ).internalizedSubstrates, 0.0 );
+    }
+
+    private static double totalAmount(Microenvironment m, List<BasicAgent> agents)
+    {
+        double total = 0;
+        for( int n = 0; n < m.number_of_voxels(); n++ )
+            total += m.getDensity( n, 0 ) * m.mesh.dx * m.mesh.dy * m.mesh.dz;
+        for( BasicAgent agent : agents )
+            total += agent.internalizedSubstrates[0];
+        return total;
+    }
+
+    @Test
+    public void testAggregatedSourcesAndSinks() throws Exception
+    {
+        for( boolean aggregated : new boolean[] {false, true} )
+        {
+            Microenvironment m = new Microenvironment( "substrate scale", 100, 20, "minutes", "microns" );
+            for( int n = 0; n < m.number_of_voxels(); n++ )
+                m.setDensity( n, 0, 5 );
+            m.setAggregateSourcesAndSinks( aggregated );
+            List<BasicAgent> agents = createAgents( m );
+            double total = totalAmount( m, agents );
+            for( int step = 0; step < 10; step++ )
+                m.apply_sources_and_sinks( agents, 0.01 );
+            assertEquals( total, totalAmount( m, agents ), 1e-9 * total );
+        }
+    }
+
+    @Test
+    public void testAgentRegistry() throws Exception
+    {
+        Microenvironment m = new Microenvironment( "substrate scale", 100, 20, "minutes", "microns" );
+        List<BasicAgent> agents = new ArrayList<>();
+        for( int i = 0; i < 5; i++ )
+            agents.add( new BasicAgent( m ) );
+        AgentRegistry<BasicAgent> registry = m.getAgents();
+        assertEquals( 5, registry.size() );
+        for( int i = 0; i < 5; i++ )
+            assertEquals( i, agents.get( i ).index );
+
+        //last agent takes place of removed one
+        m.removeAgent( agents.get( 1 ) );
+        assertEquals( -1, agents.get( 1 ).index );
+        assertEquals( 1, agents.get( 4 ).index );
+        assertEquals( agents.get( 4 ), registry.get( 1 ) );
+        m.addAgent( agents.get( 4 ) );
+        assertEquals( 4, registry.size() );
+
+        //removal during iteration visits all agents
+        List<BasicAgent> visited = new ArrayList<>();
+        for( Iterator<BasicAgent> iter = registry.iterator(); iter.hasNext(); )
+        {
+            BasicAgent agent = iter.next();
+            visited.add( agent );
+            if( agent == agents.get( 0 ) )
+                iter.remove();
+        }
+        assertEquals( 4, visited.size() );
+        assertEquals( 3, registry.size() );
+        for( int i = 0; i < registry.size(); i++ )
+            assertEquals( i, registry.get( i ).index );
+
+        //direct removal during iteration is not allowed, it would skip the last agent
+        try
+        {
+            for( BasicAgent agent : registry )
+                m.removeAgent( agent );
+            fail( "Removal during iteration should be detected" );
+        }
+        catch( ConcurrentModificationException e )
+        {
+            assertEquals( 2, registry.size() );
+        }
+    }
 }
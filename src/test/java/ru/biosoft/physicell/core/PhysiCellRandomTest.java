@@ -0,0 +1,96 @@
+package ru.biosoft.physicell.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import ru.biosoft.physicell.biofvm.Microenvironment;
+
+public class PhysiCellRandomTest
+{
+    private static double[] draw(int count)
+    {
+        double[] result = new double[count];
+        for( int i = 0; i < count; i++ )
+            result[i] = PhysiCellUtilities.UniformRandom();
+        return result;
+    }
+
+    @Test
+    public void testSeed() throws Exception
+    {
+        PhysiCellUtilities.setSeed( 42 );
+        double[] first = draw( 100 );
+        PhysiCellUtilities.setSeed( 42 );
+        assertArrayEquals( first, draw( 100 ), 0.0 );
+        for( double value : first )
+            assertTrue( value >= 0 && value < 1 );
+
+        // other thread gets its own stream
+        double[][] other = new double[1][];
+        Thread thread = new Thread( () -> other[0] = draw( 100 ) );
+        thread.start();
+        thread.join();
+        assertFalse( Arrays.equals( first, other[0] ) );
+        PhysiCellUtilities.setSeed( PhysiCellRandom.DEFAULT_SEED );
+    }
+
+    @Test
+    public void testCounterBased() throws Exception
+    {
+        Microenvironment m = new Microenvironment( "substrate scale", 100, 20, "minutes", "microns" );
+        m.setDensity( 0, "oxygen", "mmHg" );
+        CellContainer.createCellContainer( m, 30 );
+        CellDefinition.clearCellDefinitions();
+        CellDefinition cd = StandardModels.createDefaultCellDefinition( "tumor cell", m );
+        CellDefinition.registerCellDefinition( cd );
+        Cell cell = Cell.createCell( cd, m, new double[] {50, 50, 50} );
+
+        PhysiCellRandom random = new PhysiCellRandom( 7 );
+        random.setCounterBased( true );
+        double[] motility = {random.uniform( cell, 3, PhysiCellRandom.MOTILITY ), random.uniform( cell, 3, PhysiCellRandom.MOTILITY )};
+        double death = random.uniform( cell, 3, PhysiCellRandom.DEATH );
+        assertFalse( motility[0] == motility[1] );
+
+        // the same numbers are drawn in other thread and in other order of call sites, counters are reset at the next step
+        double next = random.uniform( cell, 4, PhysiCellRandom.MOTILITY );
+        double[][] other = new double[2][];
+        Thread thread = new Thread( () -> {
+            other[1] = new double[] {random.uniform( cell, 3, PhysiCellRandom.DEATH )};
+            other[0] = new double[] {random.uniform( cell, 3, PhysiCellRandom.MOTILITY ), random.uniform( cell, 3, PhysiCellRandom.MOTILITY )};
+        } );
+        thread.start();
+        thread.join();
+        assertArrayEquals( motility, other[0], 0.0 );
+        assertEquals( death, other[1][0], 0.0 );
+        assertFalse( next == motility[0] );
+
+        // seed change keeps mode, step is taken from the cell container
+        CellContainer container = (CellContainer)m.agentContainer;
+        PhysiCellUtilities.getRandom().setCounterBased( true );
+        PhysiCellUtilities.setSeed( 42 );
+        assertTrue( PhysiCellUtilities.getRandom().isCounterBased() );
+        assertEquals( -1, container.getStep() );
+        assertEquals( new PhysiCellRandom( 42 ).counterUniform( cell.ID, -1, PhysiCellRandom.DEATH, 0 ),
+                PhysiCellUtilities.UniformRandom( cell, PhysiCellRandom.DEATH ), 0.0 );
+        container.updateAllCells( m, 0, 6, 0.1, 0.01 );
+        assertEquals( 0, container.getStep() );
+        double first = PhysiCellUtilities.UniformRandom( cell, PhysiCellRandom.DEATH );
+
+        // other simulation starts with the same IDs and steps, so it draws the same numbers
+        Microenvironment m2 = new Microenvironment( "substrate scale", 100, 20, "minutes", "microns" );
+        m2.setDensity( 0, "oxygen", "mmHg" );
+        CellContainer container2 = CellContainer.createCellContainer( m2, 30 );
+        Cell cell2 = Cell.createCell( cd, m2, new double[] {50, 50, 50} );
+        assertEquals( cell.ID, cell2.ID );
+        PhysiCellUtilities.UniformRandom( cell2, PhysiCellRandom.DEATH );
+        container2.updateAllCells( m2, 0, 6, 0.1, 0.01 );
+        assertEquals( first, PhysiCellUtilities.UniformRandom( cell2, PhysiCellRandom.DEATH ), 0.0 );
+        PhysiCellUtilities.setRandom( new PhysiCellRandom() );
+    }
+}